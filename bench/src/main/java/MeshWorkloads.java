@@ -0,0 +1,171 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector3f;
+
+import jelloskeeball.bench.MeshWorkload;
+
+/**
+ * Runs the benchmarked game code on one mesh. Inside the default package 'Object'
+ * is the game's mesh class, so java.lang.Object is always written out in full.
+ */
+public class MeshWorkloads implements MeshWorkload {
+
+	private static final int NUM_QUERIES = 1024;
+
+//	The same setup as the game.
+	private static float vertex_mass = .005f;
+	private static Vector3f jello_object_max_dimensions = new Vector3f(.2f, .2f, .2f);
+	private static Point3f startPoint = new Point3f(0f, 1f, -4f);
+	private static float object_spring_constant = 150;
+	private static float collision_spring_constant = 500;
+	private static int support_spring_modulus = 1;
+	private static Vector3f gravity = new Vector3f(0, -1f, 0);
+	private static float physics_time_interval = .001f;
+	private static float cushion_amount = .2f;
+	private static Vector3f toss_velocity = new Vector3f(0, -1f, 3f);
+	private static String collision_environment_filename = "SkeeBall_map.obj";
+
+	private String mesh_path;
+	private String collision_type;
+	private Object mesh;
+
+//	The mesh as a jello tossed at the skee ball map.
+	private Object jello_object;
+	private SoftBodyState jello_state;
+	private PhysicsWorkspace jello_workspace;
+	private Object collision_environment;
+	private CollisionStructure collision_environment_tree;
+
+//	The mesh as a collision environment.
+	private CollisionStructure mesh_tree;
+	private float[] query_starts = new float[NUM_QUERIES*3];
+	private float[] query_ends = new float[NUM_QUERIES*3];
+	private int[] query_hits = new int[PhysicsWorkspace.MAX_COLLISION_HITS];
+	private Vector3f[] ray_origins = new Vector3f[NUM_QUERIES];
+	private Vector3f[] ray_directions = new Vector3f[NUM_QUERIES];
+	private int[] ray_faces = new int[NUM_QUERIES];
+	private int next_query = 0;
+
+	public void setUp(String assets_dir, String mesh_filename, String collision_type) {
+//		The loader and the tree print progress for every line and node, which would
+//		flood the benchmark output.
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) { }
+			public void write(byte[] b, int off, int len) { }
+		}));
+
+		mesh_path = assets_dir + "/" + mesh_filename;
+		this.collision_type = collision_type;
+		mesh = MeshLoader.loadObject(mesh_path, vertex_mass);
+		mesh_tree = CollisionStructure.create(collision_type, mesh.getVerts(), mesh.getFaces());
+
+		jello_object = MeshLoader.loadJelloObject(mesh_path, vertex_mass, jello_object_max_dimensions, startPoint);
+		jello_object.setSpringNetwork(initSprings());
+		jello_workspace = new PhysicsWorkspace(jello_object.getVerts().size());
+		collision_environment = MeshLoader.loadObject(assets_dir + "/" + collision_environment_filename, vertex_mass);
+		collision_environment_tree = CollisionStructure.create(collision_type, collision_environment.getVerts(), collision_environment.getFaces());
+		resetJello();
+
+//		Make short segments scattered through the bounding box of the mesh, and rays aimed
+//		at the middle of random faces.
+		ArrayList<Vertex> verts = mesh.getVerts();
+		ArrayList<Integer> faces = mesh.getFaces();
+		Point3f min = new Point3f(verts.get(0).getPosition());
+		Point3f max = new Point3f(verts.get(0).getPosition());
+		for (Vertex v : verts) {
+			Point3f p = v.getPosition();
+			min.set(Math.min(min.x, p.x), Math.min(min.y, p.y), Math.min(min.z, p.z));
+			max.set(Math.max(max.x, p.x), Math.max(max.y, p.y), Math.max(max.z, p.z));
+		}
+		float step = .01f*min.distance(max);
+
+		Random r = new Random(0);
+		for (int i = 0; i < NUM_QUERIES; i++) {
+			for (int j = 0; j < 3; j++) {
+				float lower = j == 0 ? min.x : j == 1 ? min.y : min.z;
+				float upper = j == 0 ? max.x : j == 1 ? max.y : max.z;
+				query_starts[i*3 + j] = lower + r.nextFloat()*(upper - lower);
+				query_ends[i*3 + j] = query_starts[i*3 + j] + (r.nextFloat() - .5f)*step;
+			}
+
+			int face_index = r.nextInt(faces.size()/3)*3;
+			Point3f centroid = new Point3f();
+			centroid.add(verts.get(faces.get(face_index)).getPosition());
+			centroid.add(verts.get(faces.get(face_index + 1)).getPosition());
+			centroid.add(verts.get(faces.get(face_index + 2)).getPosition());
+			centroid.scale(1f/3f);
+			ray_origins[i] = new Vector3f(centroid.x + r.nextFloat() - .5f, centroid.y + 1f, centroid.z + r.nextFloat() - .5f);
+			ray_directions[i] = new Vector3f(centroid);
+			ray_directions[i].sub(ray_origins[i]);
+			ray_directions[i].normalize();
+			ray_faces[i] = face_index;
+		}
+	}
+
+	public void resetJello() {
+		jello_state = new SoftBodyState(jello_object.getVerts());
+		float[] velocities = jello_state.getVelocities();
+		for (int i = 0; i < jello_state.getNumVerts(); i++) {
+			velocities[i*3] = toss_velocity.x;
+			velocities[i*3 + 1] = toss_velocity.y;
+			velocities[i*3 + 2] = toss_velocity.z;
+		}
+	}
+
+	public void stepPhysics() {
+		Physics.computeRungeKutta(jello_state, 
+				jello_workspace, 
+				jello_object.getSpringNetwork(), 
+				collision_environment_tree, 
+				collision_spring_constant, 
+				cushion_amount, 
+				gravity, 
+				physics_time_interval);
+	}
+
+	public java.lang.Object buildCollisionTree() {
+		return CollisionStructure.create(collision_type, mesh.getVerts(), mesh.getFaces());
+	}
+
+	public int detectCollision() {
+		int i = nextQuery();
+		return mesh_tree.detectCollision(query_starts[i*3], query_starts[i*3 + 1], query_starts[i*3 + 2], 
+										query_ends[i*3], query_ends[i*3 + 1], query_ends[i*3 + 2], 
+										cushion_amount, query_hits, 0);
+	}
+
+	public boolean hit() {
+		int i = nextQuery();
+		Vector3f origin = ray_origins[i];
+		Vector3f direction = ray_directions[i];
+		return mesh_tree.getFaceTable().hit(ray_faces[i], origin.x, origin.y, origin.z, 
+										direction.x, direction.y, direction.z, 0f, 9999f);
+	}
+
+	public SpringNetwork initSprings() {
+		return SpringNetwork.createJelloSprings(jello_object.getVerts(), jello_object.getFaces(), object_spring_constant, support_spring_modulus, 0, 0);
+	}
+
+	public java.lang.Object loadMesh() {
+		ArrayList<Point3f> input_verts = new ArrayList<Point3f>();
+		ArrayList<Integer> input_faces = new ArrayList<Integer>();
+		MeshLoader.loadMesh(mesh_path, input_verts, input_faces);
+		return input_faces;
+	}
+
+	public java.lang.Object estimateFaceNormal() {
+		ArrayList<Vector3f> normals = mesh.getNormals();
+		MeshLoader.estimateFaceNormal(mesh.getVerts(), mesh.getFaces(), normals);
+		return normals;
+	}
+
+	private int nextQuery() {
+		int i = next_query;
+		next_query = (next_query + 1) & (NUM_QUERIES - 1);
+		return i;
+	}
+}
@@ -0,0 +1,38 @@
+package jelloskeeball.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and querying each type of collision structure over each mesh.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionTreeBenchmark {
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object construct(MeshState state) {
+		return state.workload.buildCollisionTree();
+	}
+
+	@Benchmark
+	public int detectCollision(MeshState state) {
+		return state.workload.detectCollision();
+	}
+
+	@Benchmark
+	public boolean hit(MeshState state) {
+		return state.workload.hit();
+	}
+}
@@ -0,0 +1,37 @@
+package jelloskeeball.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading each mesh and preparing it for the game.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshBenchmark {
+
+	@Benchmark
+	public Object initSprings(MeshState state) {
+		return state.workload.initSprings();
+	}
+
+	@Benchmark
+	public Object loadMesh(MeshState state) {
+		return state.workload.loadMesh();
+	}
+
+	@Benchmark
+	public Object estimateFaceNormal(MeshState state) {
+		return state.workload.estimateFaceNormal();
+	}
+}
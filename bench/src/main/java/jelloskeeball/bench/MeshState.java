@@ -0,0 +1,36 @@
+package jelloskeeball.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One of the shipped meshes, loaded and ready for the benchmarks. The meshes are read
+ * from the directory in the 'jello.assets' system property, which defaults to the
+ * parent of the working directory so the benchmarks can be run from bench/.
+ * Each mesh is run with every type of collision structure.
+ */
+@State(Scope.Thread)
+public class MeshState {
+
+	@Param({"box.obj", "iso.obj", "chamfer.obj", "head.obj", "SkeeBall_map.obj"})
+	public String mesh;
+
+	@Param({"octree", "loose", "bvh", "grid"})
+	public String collision;
+
+	public MeshWorkload workload;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		workload = MeshWorkload.create();
+		workload.setUp(System.getProperty("jello.assets", ".."), mesh, collision);
+	}
+
+	@Setup(Level.Iteration)
+	public void resetJello() {
+		workload.resetJello();
+	}
+}
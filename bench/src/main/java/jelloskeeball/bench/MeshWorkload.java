@@ -0,0 +1,75 @@
+package jelloskeeball.bench;
+
+/**
+ * The work measured by the benchmarks, run on one of the shipped meshes.
+ * <p>
+ * The game classes live in the default package, which can't be imported from a
+ * named package, and JMH refuses benchmarks in the default package. The benchmarks
+ * therefore talk to the game through this interface, which is implemented by
+ * {@code MeshWorkloads} in the default package and created once per trial.
+ */
+public interface MeshWorkload {
+
+	/**
+	 * Loads the mesh and everything the other methods need.
+	 * @param assets_dir The directory holding the .obj files.
+	 * @param mesh_filename The mesh to run the work on.
+	 * @param collision_type The type of collision structure to build, as passed to
+	 * {@code CollisionStructure.create}.
+	 */
+	void setUp(String assets_dir, String mesh_filename, String collision_type);
+
+	/**
+	 * Puts the jello back at its starting state, so the physics doesn't drift
+	 * too far from a real toss over a long measurement.
+	 */
+	void resetJello();
+
+	/**
+	 * Runs one Runge Kutta step of the mesh as a jello on the skee ball map.
+	 */
+	void stepPhysics();
+
+	/**
+	 * Builds a collision structure over the mesh.
+	 */
+	Object buildCollisionTree();
+
+	/**
+	 * Runs the next of a fixed set of segment queries against the collision structure of the mesh.
+	 * @return The number of faces hit.
+	 */
+	int detectCollision();
+
+	/**
+	 * Runs the next of a fixed set of ray-triangle tests against the faces of the mesh.
+	 */
+	boolean hit();
+
+	/**
+	 * Creates the springs of the mesh as a jello, with the game's settings.
+	 */
+	Object initSprings();
+
+	/**
+	 * Loads the mesh from disk.
+	 */
+	Object loadMesh();
+
+	/**
+	 * Computes the face normals of the mesh.
+	 */
+	Object estimateFaceNormal();
+
+
+	/**
+	 * Creates the workload implementation from the default package.
+	 */
+	static MeshWorkload create() {
+		try {
+			return (MeshWorkload) Class.forName("MeshWorkloads").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("The game classes are not on the classpath", e);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Loads and prepares meshes on a thread pool. Every method returns right away with a
+ * future, so all the assets of a level load at the same time and the caller only waits
+ * for one when it needs it. Loading then takes about as long as the slowest asset
+ * instead of the sum of all of them.
+ */
+public class AssetPipeline {
+
+	private Executor executor;
+
+	/**
+	 * Creates a pipeline that runs on the common fork-join pool.
+	 */
+	public AssetPipeline() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public AssetPipeline(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Loads the mesh in the given file into an Object, see MeshLoader.loadObject.
+	 */
+	public CompletableFuture<Object> loadObject(final String filename, final float vertex_mass) {
+		return CompletableFuture.supplyAsync(new Supplier<Object>() {
+			public Object get() {
+				return MeshLoader.loadObject(filename, vertex_mass);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Loads, scales and moves a jello object, see MeshLoader.loadJelloObject.
+	 */
+	public CompletableFuture<Object> loadJelloObject(final String filename, final float vertex_mass,
+													final Vector3f max_dimensions, final Point3f start_point) {
+		return CompletableFuture.supplyAsync(new Supplier<Object>() {
+			public Object get() {
+				return MeshLoader.loadJelloObject(filename, vertex_mass, max_dimensions, start_point);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Builds or loads the collision structure of an object once the object has loaded,
+	 * see CollisionStructure.load.
+	 * @param filename The file the object is loaded from.
+	 * @param object
+	 * @param use_distance_field Whether or not to also create a distance field for the
+	 * structure. The field is created at the same time as the structure.
+	 * @return
+	 */
+	public CompletableFuture<CollisionStructure> loadCollisionStructure(final String filename, CompletableFuture<Object> object,
+																		boolean use_distance_field) {
+		CompletableFuture<CollisionStructure> structure = object.thenApplyAsync(new Function<Object, CollisionStructure>() {
+			public CollisionStructure apply(Object object) {
+				return CollisionStructure.load(filename, object.getVerts(), object.getFaces());
+			}
+		}, executor);
+		if (!use_distance_field) {
+			return structure;
+		}
+
+		CompletableFuture<DistanceField> distance_field = object.thenApplyAsync(new Function<Object, DistanceField>() {
+			public DistanceField apply(Object object) {
+				return DistanceField.create(object.getVerts(), object.getFaces());
+			}
+		}, executor);
+		return structure.thenCombine(distance_field, new BiFunction<CollisionStructure, DistanceField, CollisionStructure>() {
+			public CollisionStructure apply(CollisionStructure structure, DistanceField distance_field) {
+				structure.setDistanceField(distance_field);
+				return structure;
+			}
+		});
+	}
+}
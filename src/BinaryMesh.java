@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * Reads and writes meshes in a compact binary format, and converts .obj files to it.
+ * The file is a header of 6 little-endian ints: the magic number, the version, the
+ * flags, the number of vertices, faces and springs. It is followed by the positions
+ * as floats, the vertex indices of the faces as ints, then the normals as floats if
+ * the HAS_NORMALS flag is set, and the spring endpoints as ints and spring constants
+ * as floats if the HAS_SPRINGS flag is set. Everything is 4 bytes wide, so a mapped
+ * file is copied straight into the arrays of a MeshData without parsing anything.
+ * The equilibrium lengths of the springs are not saved, since they depend on the size
+ * the mesh is scaled to when it is loaded.
+ */
+public class BinaryMesh {
+
+	public static final String EXTENSION = ".jmesh";
+
+	public static final int HAS_NORMALS = 1;
+	public static final int HAS_SPRINGS = 2;
+
+	private static final int MAGIC = 0x4A4D5348;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 4*6;
+
+	public static void printUsage() {
+		System.out.println("Usage: java BinaryMesh input.obj output" + EXTENSION + " [spring_constant support_spring_modulus]");
+		System.exit(1);
+	}
+
+	/**
+	 * Converts a .obj file to a binary mesh with its face normals. If a spring constant and
+	 * a support spring modulus are given, the springs of a jello object are saved too. The
+	 * extra support springs are set with the same properties as for the game.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2 && args.length != 4) {
+			printUsage();
+		}
+		MeshData mesh = MeshLoader.readMesh(args[0]);
+		Object object = MeshLoader.createObject(mesh, 1);
+
+		ArrayList<Vector3f> object_normals = object.getNormals();
+		float[] normals = new float[object_normals.size()*3];
+		for (int i = 0; i < object_normals.size(); i++) {
+			normals[i*3] = object_normals.get(i).x;
+			normals[i*3 + 1] = object_normals.get(i).y;
+			normals[i*3 + 2] = object_normals.get(i).z;
+		}
+		mesh.setNormals(normals);
+
+		if (args.length == 4) {
+			SpringNetwork spring_network = SpringNetwork.createJelloSprings(object.getVerts(),
+																			object.getFaces(),
+																			Float.parseFloat(args[2]),
+																			Integer.parseInt(args[3]),
+																			SpringNetwork.SUPPORT_SPRING_NEIGHBOURS,
+																			SpringNetwork.SUPPORT_SPRING_RADIUS);
+			mesh.setSprings(spring_network.getNumSprings(), spring_network.getEndpoints(), spring_network.getSpringConstants());
+		}
+
+		write(args[1], mesh);
+		System.out.println("Wrote " + mesh.getNumVerts() + " vertices, " + mesh.getNumFaces() + " faces and " +
+						mesh.getNumSprings() + " springs to " + args[1]);
+	}
+
+	/**
+	 * Writes the mesh to the given file.
+	 * @param filename
+	 * @param mesh
+	 */
+	public static void write(String filename, MeshData mesh) {
+		int num_verts = mesh.getNumVerts();
+		int num_faces = mesh.getNumFaces();
+		int num_springs = mesh.hasSprings() ? mesh.getNumSprings() : 0;
+		int flags = (mesh.hasNormals() ? HAS_NORMALS : 0) | (mesh.hasSprings() ? HAS_SPRINGS : 0);
+
+		long num_bytes = getNumBytes(flags, num_verts, num_faces, num_springs);
+
+		try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+			file.setLength(num_bytes);
+			ByteBuffer out = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, num_bytes).order(ByteOrder.LITTLE_ENDIAN);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(flags);
+			out.putInt(num_verts);
+			out.putInt(num_faces);
+			out.putInt(num_springs);
+			putFloats(out, mesh.getPositions(), num_verts*3);
+			putInts(out, mesh.getFaces(), num_faces*3);
+			if (mesh.hasNormals()) {
+				putFloats(out, mesh.getNormals(), num_faces*9);
+			}
+			if (mesh.hasSprings()) {
+				putInts(out, mesh.getSpringEndpoints(), num_springs*2);
+				putFloats(out, mesh.getSpringConstants(), num_springs);
+			}
+		} catch (IOException e) {
+			System.out.println("Error writing to file " + filename);
+		}
+	}
+
+	/**
+	 * Maps the given file into memory and copies its arrays into a mesh.
+	 * @param filename
+	 * @return
+	 */
+	public static MeshData read(String filename) {
+		MeshData mesh = null;
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+			ByteBuffer in = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()).order(ByteOrder.LITTLE_ENDIAN);
+			if (file.length() < HEADER_BYTES || in.getInt() != MAGIC || in.getInt() != VERSION) {
+				throw new IOException();
+			}
+			int flags = in.getInt();
+			int num_verts = in.getInt();
+			int num_faces = in.getInt();
+			int num_springs = in.getInt();
+			if (num_verts < 0 || num_faces < 0 || num_springs < 0 ||
+				file.length() != getNumBytes(flags, num_verts, num_faces, num_springs)) {
+				throw new IOException();
+			}
+
+			float[] positions = getFloats(in, num_verts*3);
+			int[] faces = getInts(in, num_faces*3);
+			if (!isInRange(faces, num_verts)) {
+				throw new IOException();
+			}
+			mesh = new MeshData(positions, num_verts, faces, num_faces);
+			if ((flags & HAS_NORMALS) != 0) {
+				mesh.setNormals(getFloats(in, num_faces*9));
+			}
+			if ((flags & HAS_SPRINGS) != 0) {
+				int[] spring_endpoints = getInts(in, num_springs*2);
+				if (!isInRange(spring_endpoints, num_verts)) {
+					throw new IOException();
+				}
+				mesh.setSprings(num_springs, spring_endpoints, getFloats(in, num_springs));
+			}
+		} catch (IOException | BufferUnderflowException e) {
+			System.out.println("Error reading from file " + filename);
+			System.exit(0);
+		}
+
+		System.out.println("Read " + mesh.getNumVerts() +
+						" vertices and " + mesh.getNumFaces() + " faces.");
+		return mesh;
+	}
+
+	/**
+	 * Returns the size of a file with the given header. The counts are widened to longs,
+	 * so a bad header can't overflow.
+	 */
+	private static long getNumBytes(int flags, int num_verts, int num_faces, int num_springs) {
+		long num_bytes = HEADER_BYTES + 4L*num_verts*3 + 4L*num_faces*3;
+		if ((flags & HAS_NORMALS) != 0) {
+			num_bytes += 4L*num_faces*9;
+		}
+		if ((flags & HAS_SPRINGS) != 0) {
+			num_bytes += 4L*num_springs*3;
+		}
+		return num_bytes;
+	}
+
+	/**
+	 * Returns whether or not every vertex index is one of the vertices of the mesh.
+	 */
+	private static boolean isInRange(int[] vertex_indices, int num_verts) {
+		for (int index : vertex_indices) {
+			if (index < 0 || index >= num_verts) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void putFloats(ByteBuffer out, float[] values, int count) {
+		out.asFloatBuffer().put(values, 0, count);
+		out.position(out.position() + count*4);
+	}
+
+	private static void putInts(ByteBuffer out, int[] values, int count) {
+		out.asIntBuffer().put(values, 0, count);
+		out.position(out.position() + count*4);
+	}
+
+	private static float[] getFloats(ByteBuffer in, int count) {
+		float[] values = new float[count];
+		in.asFloatBuffer().get(values);
+		in.position(in.position() + count*4);
+		return values;
+	}
+
+	private static int[] getInts(ByteBuffer in, int count) {
+		int[] values = new int[count];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + count*4);
+		return values;
+	}
+}
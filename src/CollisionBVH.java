@@ -0,0 +1,470 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A bounding volume hierarchy over the faces of a static mesh, built with the surface area
+ * heuristic and stored in flat arrays. Node i has the bounding box stored in 'node_bounds'
+ * from i*6 (min x, y, z then max x, y, z). A leaf node stores its faces in 'face_order' from
+ * node_first[i] up to node_first[i] + node_counts[i]. An inner node has a count of 0, its
+ * left child is the next node and its right child is node_first[i].
+ * Every face is stored in exactly one leaf, so a query reports each colliding face once.
+ */
+public class CollisionBVH extends CollisionStructure {
+
+	public static final int MAX_LEAF_FACES = 4;
+	private static final int NUM_BINS = 12;
+
+	private int num_nodes = 0;
+	private float[] node_bounds;
+	private int[] node_first;
+	private int[] node_counts;
+
+//	The starting indices in the face list of the faces, in the order the leaves store them.
+	private int[] face_order;
+
+//	Scratch data used while building.
+	private float[] centroids;
+	private float[] bin_bounds = new float[NUM_BINS*6];
+	private int[] bin_counts = new int[NUM_BINS];
+	private float[] right_areas = new float[NUM_BINS];
+
+//	Used to load a saved hierarchy, see read.
+	CollisionBVH() {}
+
+	public CollisionBVH(ArrayList<Vertex> verts, ArrayList<Integer> faces) {
+		face_table = new FaceTable(verts, faces);
+		int num_faces = face_table.getNumFaces();
+		float[] face_data = face_table.getData();
+
+		int max_nodes = Math.max(num_faces*2 - 1, 1);
+		node_bounds = new float[max_nodes*6];
+		node_first = new int[max_nodes];
+		node_counts = new int[max_nodes];
+
+//		Build the tree over the face numbers, then turn them into starting indices.
+		face_order = new int[num_faces];
+		centroids = new float[num_faces*3];
+		for (int i = 0; i < num_faces; i++) {
+			int f = i*FaceTable.STRIDE;
+			face_order[i] = i;
+			for (int axis = 0; axis < 3; axis++) {
+				centroids[i*3 + axis] = (face_data[f + FaceTable.MIN + axis] + face_data[f + FaceTable.MAX + axis])*.5f;
+			}
+		}
+
+		buildNode(0, num_faces);
+		centroids = null;
+
+		for (int i = 0; i < num_faces; i++) {
+			face_order[i] *= 3;
+		}
+		node_bounds = Arrays.copyOf(node_bounds, num_nodes*6);
+		node_first = Arrays.copyOf(node_first, num_nodes);
+		node_counts = Arrays.copyOf(node_counts, num_nodes);
+	}
+
+	/**
+	 * Creates a node for the faces in face_order from first up to end, and recursively
+	 * creates its children.
+	 * @return The index of the node.
+	 */
+	private int buildNode(int first, int end) {
+		int node = num_nodes++;
+		computeBounds(first, end, node_bounds, node*6);
+
+		int count = end - first;
+		if (count <= 1) {
+			makeLeaf(node, first, count);
+			return node;
+		}
+
+//		Find the range of the centroids, which the split planes are placed in.
+		float[] centroid_min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+		float[] centroid_max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+		for (int i = first; i < end; i++) {
+			for (int axis = 0; axis < 3; axis++) {
+				float c = centroids[face_order[i]*3 + axis];
+				centroid_min[axis] = Math.min(centroid_min[axis], c);
+				centroid_max[axis] = Math.max(centroid_max[axis], c);
+			}
+		}
+
+//		Find the cheapest split between the bins of each axis. The cost of a split is the
+//		number of faces on each side weighted by the chance a ray through the node also
+//		passes through that side, which is the ratio of the surface areas.
+		float best_cost = Float.MAX_VALUE;
+		int best_axis = -1;
+		int best_split = -1;
+		for (int axis = 0; axis < 3; axis++) {
+			float extent = centroid_max[axis] - centroid_min[axis];
+			if (extent <= 0) {
+				continue;
+			}
+			fillBins(first, end, axis, centroid_min[axis], extent);
+
+//			Sweep from the right to get the area of everything right of each split, then
+//			from the left to get the cost of each split.
+			float[] bounds = emptyBounds();
+			int right_count = 0;
+			for (int bin = NUM_BINS - 1; bin > 0; bin--) {
+				growBounds(bounds, bin_bounds, bin*6);
+				right_count += bin_counts[bin];
+				right_areas[bin] = right_count > 0 ? surfaceArea(bounds, 0) : 0;
+			}
+			bounds = emptyBounds();
+			int left_count = 0;
+			right_count = count;
+			for (int bin = 0; bin < NUM_BINS - 1; bin++) {
+				growBounds(bounds, bin_bounds, bin*6);
+				left_count += bin_counts[bin];
+				right_count -= bin_counts[bin];
+				if (left_count == 0 || right_count == 0) {
+					continue;
+				}
+				float cost = surfaceArea(bounds, 0)*left_count + right_areas[bin + 1]*right_count;
+				if (cost < best_cost) {
+					best_cost = cost;
+					best_axis = axis;
+					best_split = bin + 1;
+				}
+			}
+		}
+
+//		Stop splitting if testing all the faces is cheaper than the best split, or if
+//		the faces can't be split because their centroids are all in the same place.
+		float leaf_cost = count;
+		float node_area = surfaceArea(node_bounds, node*6);
+		float split_cost = node_area > 0 ? 1 + best_cost/node_area : Float.MAX_VALUE;
+		if (best_axis == -1 || (count <= MAX_LEAF_FACES && leaf_cost <= split_cost)) {
+			makeLeaf(node, first, count);
+			return node;
+		}
+
+//		Move the faces left of the split to the front of the range.
+		float scale = NUM_BINS/(centroid_max[best_axis] - centroid_min[best_axis]);
+		int mid = first;
+		for (int i = first; i < end; i++) {
+			if (getBin(centroids[face_order[i]*3 + best_axis], centroid_min[best_axis], scale) < best_split) {
+				int temp = face_order[i];
+				face_order[i] = face_order[mid];
+				face_order[mid] = temp;
+				mid++;
+			}
+		}
+
+		node_counts[node] = 0;
+		buildNode(first, mid);
+		node_first[node] = buildNode(mid, end);
+		return node;
+	}
+
+	private void makeLeaf(int node, int first, int count) {
+		node_first[node] = first;
+		node_counts[node] = count;
+	}
+
+	/**
+	 * Sorts the faces from first up to end into the bins along the given axis, and computes
+	 * the bounds and the number of faces of each bin.
+	 */
+	private void fillBins(int first, int end, int axis, float min, float extent) {
+		float scale = NUM_BINS/extent;
+		float[] face_data = face_table.getData();
+
+		Arrays.fill(bin_counts, 0);
+		for (int bin = 0; bin < NUM_BINS; bin++) {
+			System.arraycopy(emptyBounds(), 0, bin_bounds, bin*6, 6);
+		}
+		for (int i = first; i < end; i++) {
+			int face = face_order[i];
+			int bin = getBin(centroids[face*3 + axis], min, scale);
+			bin_counts[bin]++;
+			growBounds(bin_bounds, bin*6, face_data, face*FaceTable.STRIDE);
+		}
+	}
+
+	private static int getBin(float centroid, float min, float scale) {
+		return Math.min((int) ((centroid - min)*scale), NUM_BINS - 1);
+	}
+
+	/**
+	 * Computes the bounding box of the faces from first up to end.
+	 */
+	private void computeBounds(int first, int end, float[] bounds, int offset) {
+		float[] face_data = face_table.getData();
+		System.arraycopy(emptyBounds(), 0, bounds, offset, 6);
+		for (int i = first; i < end; i++) {
+			growBounds(bounds, offset, face_data, face_order[i]*FaceTable.STRIDE);
+		}
+	}
+
+	private static float[] emptyBounds() {
+		return new float[] {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+	}
+
+	/**
+	 * Grows the bounds to contain the bounding box of a face in the face table.
+	 */
+	private static void growBounds(float[] bounds, int offset, float[] face_data, int f) {
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[offset + axis] = Math.min(bounds[offset + axis], face_data[f + FaceTable.MIN + axis]);
+			bounds[offset + 3 + axis] = Math.max(bounds[offset + 3 + axis], face_data[f + FaceTable.MAX + axis]);
+		}
+	}
+
+	/**
+	 * Grows the bounds to contain other bounds.
+	 */
+	private static void growBounds(float[] bounds, float[] other, int other_offset) {
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[axis] = Math.min(bounds[axis], other[other_offset + axis]);
+			bounds[3 + axis] = Math.max(bounds[3 + axis], other[other_offset + 3 + axis]);
+		}
+	}
+
+	private static float surfaceArea(float[] bounds, int offset) {
+		float dx = bounds[offset + 3] - bounds[offset];
+		float dy = bounds[offset + 4] - bounds[offset + 1];
+		float dz = bounds[offset + 5] - bounds[offset + 2];
+		if (dx < 0 || dy < 0 || dz < 0) {
+			return 0;
+		}
+		return 2*(dx*dy + dy*dz + dz*dx);
+	}
+
+	/**
+	 * Detects if there was a collision between the ray defined by the given points and a face in the
+	 * hierarchy. A face can only collide if it lies within the cushion of the part of the ray tested
+	 * by FaceTable.detectCollision, so only the nodes that overlap the box around that part are visited.
+	 */
+	public int detectCollision(float start_x, float start_y, float start_z,
+								float end_x, float end_y, float end_z,
+								float cushion_amount, int[] collision_face_indices, int num_collisions) {
+
+//		Compute the direction of the start to the end.
+		float dir_x = end_x - start_x;
+		float dir_y = end_y - start_y;
+		float dir_z = end_z - start_z;
+		float norm = (float) (1.0/Math.sqrt(dir_x*dir_x + dir_y*dir_y + dir_z*dir_z));
+		dir_x *= norm;
+		dir_y *= norm;
+		dir_z *= norm;
+
+//		Compute tmax.
+		float tmax = Math.max(Math.abs(end_x - start_x), Math.max(Math.abs(end_y - start_y), Math.abs(end_z - start_z)));
+
+//		The ray is tested from the end point along the direction up to tmax + .01. If the vertex
+//		didn't move only the faces within the cushion of the end point can collide.
+		float ahead_x = end_x, ahead_y = end_y, ahead_z = end_z;
+		if (tmax > 0) {
+			ahead_x += dir_x*(tmax + .01f);
+			ahead_y += dir_y*(tmax + .01f);
+			ahead_z += dir_z*(tmax + .01f);
+		}
+		float inflate = cushion_amount + QUERY_EPSILON;
+		float min_x = Math.min(end_x, ahead_x) - inflate;
+		float min_y = Math.min(end_y, ahead_y) - inflate;
+		float min_z = Math.min(end_z, ahead_z) - inflate;
+		float max_x = Math.max(end_x, ahead_x) + inflate;
+		float max_y = Math.max(end_y, ahead_y) + inflate;
+		float max_z = Math.max(end_z, ahead_z) + inflate;
+
+		if (num_nodes == 0 || face_order.length == 0) {
+			return num_collisions;
+		}
+		return detectCollision(0, min_x, min_y, min_z, max_x, max_y, max_z,
+								end_x, end_y, end_z, dir_x, dir_y, dir_z, tmax,
+								cushion_amount, collision_face_indices, num_collisions);
+	}
+
+	private int detectCollision(int node, float min_x, float min_y, float min_z, float max_x, float max_y, float max_z,
+								float end_x, float end_y, float end_z, float dir_x, float dir_y, float dir_z, float tmax,
+								float cushion_amount, int[] collision_face_indices, int num_collisions) {
+
+		int b = node*6;
+		if (node_bounds[b] > max_x || node_bounds[b + 3] < min_x ||
+			node_bounds[b + 1] > max_y || node_bounds[b + 4] < min_y ||
+			node_bounds[b + 2] > max_z || node_bounds[b + 5] < min_z) {
+			return num_collisions;
+		}
+
+//		Check for a collision against the faces in a leaf whose bounding boxes overlap the query.
+		int count = node_counts[node];
+		if (count > 0) {
+			float[] face_data = face_table.getData();
+			int first = node_first[node];
+			for (int i = first; i < first + count && num_collisions < collision_face_indices.length; i++) {
+				int face_index = face_order[i];
+				int f = (face_index/3)*FaceTable.STRIDE + FaceTable.MIN;
+				if (face_data[f] > max_x || face_data[f + 3] < min_x ||
+					face_data[f + 1] > max_y || face_data[f + 4] < min_y ||
+					face_data[f + 2] > max_z || face_data[f + 5] < min_z) {
+					continue;
+				}
+				if (face_table.detectCollision(face_index, end_x, end_y, end_z, dir_x, dir_y, dir_z, tmax, cushion_amount)) {
+					collision_face_indices[num_collisions++] = face_index;
+				}
+			}
+			return num_collisions;
+		}
+
+		num_collisions = detectCollision(node + 1, min_x, min_y, min_z, max_x, max_y, max_z,
+										end_x, end_y, end_z, dir_x, dir_y, dir_z, tmax,
+										cushion_amount, collision_face_indices, num_collisions);
+		return detectCollision(node_first[node], min_x, min_y, min_z, max_x, max_y, max_z,
+								end_x, end_y, end_z, dir_x, dir_y, dir_z, tmax,
+								cushion_amount, collision_face_indices, num_collisions);
+	}
+
+	/**
+	 * Returns whether or not the given box overlaps the bounding box of a face in the hierarchy.
+	 */
+	public boolean overlapsFaces(float min_x, float min_y, float min_z, float max_x, float max_y, float max_z) {
+		return face_order.length > 0 && overlapsFaces(0, min_x, min_y, min_z, max_x, max_y, max_z);
+	}
+
+	private boolean overlapsFaces(int node, float min_x, float min_y, float min_z, float max_x, float max_y, float max_z) {
+		int b = node*6;
+		if (node_bounds[b] > max_x || node_bounds[b + 3] < min_x ||
+			node_bounds[b + 1] > max_y || node_bounds[b + 4] < min_y ||
+			node_bounds[b + 2] > max_z || node_bounds[b + 5] < min_z) {
+			return false;
+		}
+		if (node_counts[node] > 0) {
+			for (int i = node_first[node]; i < node_first[node] + node_counts[node]; i++) {
+				if (face_table.overlapsBox(face_order[i], min_x, min_y, min_z, max_x, max_y, max_z)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return overlapsFaces(node + 1, min_x, min_y, min_z, max_x, max_y, max_z) ||
+			   overlapsFaces(node_first[node], min_x, min_y, min_z, max_x, max_y, max_z);
+	}
+
+	/**
+	 * Returns the distance from the point to the closest face box in the hierarchy, or the
+	 * maximum if none is closer. The closer child of each node is visited first, so the
+	 * other one can usually be skipped.
+	 */
+	public float getClearance(float x, float y, float z, float max_clearance) {
+		if (face_order.length == 0) {
+			return max_clearance;
+		}
+		return getClearance(0, x, y, z, max_clearance);
+	}
+
+	private float getClearance(int node, float x, float y, float z, float clearance) {
+		if (node_counts[node] > 0) {
+			for (int i = node_first[node]; i < node_first[node] + node_counts[node]; i++) {
+				clearance = Math.min(clearance, face_table.getBoxDistance(face_order[i], x, y, z));
+			}
+			return clearance;
+		}
+		int near = node + 1, far = node_first[node];
+		float near_distance = getNodeDistance(near, x, y, z);
+		float far_distance = getNodeDistance(far, x, y, z);
+		if (far_distance < near_distance) {
+			near = far;
+			far = node + 1;
+			float swap = near_distance;
+			near_distance = far_distance;
+			far_distance = swap;
+		}
+		if (near_distance < clearance) {
+			clearance = getClearance(near, x, y, z, clearance);
+		}
+		if (far_distance < clearance) {
+			clearance = getClearance(far, x, y, z, clearance);
+		}
+		return clearance;
+	}
+
+	private float getNodeDistance(int node, float x, float y, float z) {
+		int b = node*6;
+		return getBoxDistance(node_bounds[b], node_bounds[b + 1], node_bounds[b + 2],
+							node_bounds[b + 3], node_bounds[b + 4], node_bounds[b + 5], x, y, z);
+	}
+
+	/**
+	 * Runs the queries of one packet of a batch with a single walk of the hierarchy. Only the
+	 * nodes that overlap the box around the whole packet are visited, and at each leaf only the
+	 * queries whose own box overlaps the leaf are tested. A query gets the same faces in the same
+	 * order as it would from detectCollision.
+	 */
+	public void detectCollisions(CollisionBatch batch, int packet, int worker) {
+		if (face_order.length == 0) {
+			return;
+		}
+		detectCollisions(0, batch, packet, batch.getPacketStart(packet), batch.getPacketEnd(packet));
+	}
+
+	private void detectCollisions(int node, CollisionBatch batch, int packet, int first_slot, int end_slot) {
+		float[] packet_bounds = batch.getPacketBounds();
+		int b = node*6;
+		int p = packet*6;
+		if (!boxesOverlap(node_bounds, b, packet_bounds, p)) {
+			return;
+		}
+
+		int count = node_counts[node];
+		if (count == 0) {
+			detectCollisions(node + 1, batch, packet, first_slot, end_slot);
+			detectCollisions(node_first[node], batch, packet, first_slot, end_slot);
+			return;
+		}
+
+//		Test the faces of the leaf against each query of the packet that overlaps it.
+		int[] order = batch.getOrder();
+		float[] query_data = batch.getQueryData();
+		float[] face_data = face_table.getData();
+		float cushion_amount = batch.getCushionAmount();
+		int first = node_first[node];
+		for (int slot = first_slot; slot < end_slot; slot++) {
+			int q = slot*CollisionBatch.STRIDE;
+			if (!boxesOverlap(node_bounds, b, query_data, q + CollisionBatch.MIN)) {
+				continue;
+			}
+
+			int query = order[slot];
+			for (int i = first; i < first + count; i++) {
+				int face_index = face_order[i];
+				if (!boxesOverlap(face_data, (face_index/3)*FaceTable.STRIDE + FaceTable.MIN, query_data, q + CollisionBatch.MIN)) {
+					continue;
+				}
+				if (face_table.detectCollision(face_index, 
+												query_data[q + CollisionBatch.END], query_data[q + CollisionBatch.END + 1], query_data[q + CollisionBatch.END + 2], 
+												query_data[q + CollisionBatch.DIR], query_data[q + CollisionBatch.DIR + 1], query_data[q + CollisionBatch.DIR + 2], 
+												query_data[q + CollisionBatch.TMAX], cushion_amount)) {
+					batch.addHit(query, face_index);
+				}
+			}
+		}
+	}
+
+	protected void write(DataOutputStream out) throws IOException {
+		out.writeInt(num_nodes);
+		writeFloats(out, node_bounds, num_nodes*6);
+		writeInts(out, node_first, num_nodes);
+		writeInts(out, node_counts, num_nodes);
+		writeInts(out, face_order, face_order.length);
+	}
+
+	protected void read(ByteBuffer in) {
+		num_nodes = in.getInt();
+		node_bounds = readFloats(in);
+		node_first = readInts(in);
+		node_counts = readInts(in);
+		face_order = readInts(in);
+	}
+
+	/**
+	 * Getters
+	 */
+	public int getNumNodes() {
+		return num_nodes;
+	}
+}
@@ -0,0 +1,440 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the collision queries of every vertex of a soft body in one call. The queries are
+ * sorted by the Morton code of their end points so that queries next to each other in the
+ * sorted order are also close in space, and are then handed to the collision structure in
+ * packets of PACKET_SIZE. A structure can walk its nodes once per packet instead of once
+ * per query. The faces hit by query i are stored in 'hits' from i*MAX_HITS_PER_QUERY,
+ * and 'hit_counts' stores how many there are. A batch set up for more than one thread
+ * splits the packets between the workers of the fork-join pool.
+ *
+ * A vertex only moves a tiny distance each step, so the batch also keeps a clearance for each
+ * query: the distance from the end point of its last query that found nothing to the closest
+ * face box. While the vertex stays close enough to that point that its query box can't reach
+ * past the clearance, the query can't hit anything and is skipped. If the structure has a
+ * distance field, the clearances are read from the field instead of searching the structure,
+ * and a query without a clearance is also skipped if the field shows it is far from every face.
+ */
+public class CollisionBatch {
+
+	public static final int PACKET_SIZE = 16;
+	public static final int MAX_HITS_PER_QUERY = PhysicsWorkspace.MAX_COLLISION_HITS;
+
+//	The data stored for each query in sorted order.
+	public static final int END = 0;      // The end point of the query.
+	public static final int DIR = 3;      // The normalized direction from the start to the end point.
+	public static final int TMAX = 6;     // The largest absolute coordinate difference between the start and the end point.
+	public static final int MIN = 7;      // The box around the faces the query can hit.
+	public static final int MAX = 10;
+	public static final int STRIDE = 13;
+
+//	Whether or not queries are skipped while they stay inside their clearance, set with
+//	-Djello.collision.clearance=<true|false>.
+	public static final boolean USE_CLEARANCE = Boolean.parseBoolean(System.getProperty("jello.collision.clearance", "true"));
+
+//	How far to look for the closest face when computing a clearance. Looking further only
+//	helps vertices that are already far from every face.
+	public static final float MAX_CLEARANCE = .5f;
+
+	private int num_queries;
+	private int num_active_queries;
+	private int num_packets;
+	private int num_workers;
+	private long[] sort_keys;
+	private int[] order;
+	private float[] query_data;
+	private float[] packet_bounds;
+	private int[] hit_counts;
+	private int[] hits;
+	private int[][] worker_scratch;
+	private PacketTask[] packet_tasks;
+	private StepTask step_task = new StepTask();
+
+//	The end point of the last query of each vertex that found nothing, and how far that point
+//	is from the closest face box in the structure the clearances were computed for.
+	private boolean use_clearance = USE_CLEARANCE;
+	private float[] anchors;
+	private float[] clearances;
+	private CollisionStructure clearance_structure;
+
+//	The arguments of the current call to 'detectCollisions'.
+	private CollisionStructure structure;
+	private float[] starts;
+	private float[] ends;
+	private float cushion_amount;
+
+	public CollisionBatch(int num_queries) {
+		this(num_queries, 1);
+	}
+
+	public CollisionBatch(int num_queries, int num_workers) {
+		this.num_queries = num_queries;
+		this.num_workers = num_workers;
+		int max_packets = (num_queries + PACKET_SIZE - 1)/PACKET_SIZE;
+
+		sort_keys = new long[num_queries];
+		order = new int[num_queries];
+		query_data = new float[num_queries*STRIDE];
+		packet_bounds = new float[max_packets*6];
+		hit_counts = new int[num_queries];
+		hits = new int[num_queries*MAX_HITS_PER_QUERY];
+		worker_scratch = new int[num_workers][MAX_HITS_PER_QUERY];
+		anchors = new float[num_queries*3];
+		clearances = new float[num_queries];
+
+		if (num_workers > 1) {
+			packet_tasks = new PacketTask[num_workers];
+			for (int i = 0; i < num_workers; i++) {
+				packet_tasks[i] = new PacketTask(i);
+			}
+		}
+	}
+
+	/**
+	 * Finds the faces each vertex collides with while moving from its start to its end point.
+	 * Each query gets the same faces as CollisionStructure.detectCollision would give it,
+	 * including the queries skipped because they are inside their clearance.
+	 * @param structure The collision structure to query.
+	 * @param starts The start point of each query, 3 floats per query.
+	 * @param ends The end point of each query, 3 floats per query.
+	 * @param cushion_amount
+	 */
+	public void detectCollisions(CollisionStructure structure, float[] starts, float[] ends, float cushion_amount) {
+		this.structure = structure;
+		this.starts = starts;
+		this.ends = ends;
+		this.cushion_amount = cushion_amount;
+
+//		The clearances only hold for the structure they were computed for.
+		if (structure != clearance_structure) {
+			Arrays.fill(clearances, 0);
+			clearance_structure = structure;
+		}
+
+		selectQueries();
+		sortQueries();
+		computeQueryData();
+
+		num_packets = (num_active_queries + PACKET_SIZE - 1)/PACKET_SIZE;
+		if (packet_tasks != null) {
+			step_task.reinitialize();
+			ParallelSpringForces.getPool().invoke(step_task);
+		}
+		else {
+			detectCollisions(0, num_packets, 0);
+		}
+
+		this.structure = null;
+		this.starts = null;
+		this.ends = null;
+	}
+
+	/**
+	 * Runs the queries of the given range of packets, and updates the clearance of each query.
+	 */
+	private void detectCollisions(int first_packet, int end_packet, int worker) {
+		for (int packet = first_packet; packet < end_packet; packet++) {
+			for (int slot = getPacketStart(packet); slot < getPacketEnd(packet); slot++) {
+				hit_counts[order[slot]] = 0;
+			}
+			structure.detectCollisions(this, packet, worker);
+
+			if (use_clearance) {
+				for (int slot = getPacketStart(packet); slot < getPacketEnd(packet); slot++) {
+					updateClearance(order[slot]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves the anchor of a query that found nothing to its end point and computes the clearance
+	 * from there. A query that hit a face gets no clearance, since it is touching the faces.
+	 */
+	private void updateClearance(int query) {
+		if (hit_counts[query] > 0) {
+			clearances[query] = 0;
+			return;
+		}
+		float end_x = ends[query*3], end_y = ends[query*3 + 1], end_z = ends[query*3 + 2];
+		anchors[query*3] = end_x;
+		anchors[query*3 + 1] = end_y;
+		anchors[query*3 + 2] = end_z;
+		DistanceField distance_field = structure.getDistanceField();
+		if (distance_field != null) {
+			clearances[query] = distance_field.getClearance(end_x, end_y, end_z);
+		}
+		else {
+			clearances[query] = structure.getClearance(end_x, end_y, end_z, MAX_CLEARANCE);
+		}
+	}
+
+	/**
+	 * Puts the queries that need to be run at the front of 'order', and clears the hits of the
+	 * others. A query is skipped when the cube around its anchor that holds its whole query box
+	 * is inside the clearance. The query box reaches at most tmax + .01 past the end point, grown
+	 * by the cushion, and the end point is at most the largest coordinate difference from the anchor.
+	 * The epsilon is added twice, once for the query box and once for rounding. A query without
+	 * a clearance is checked against the distance field at its end point the same way.
+	 */
+	private void selectQueries() {
+		num_active_queries = 0;
+		float inflate = cushion_amount + CollisionStructure.QUERY_EPSILON*2;
+		DistanceField distance_field = structure.getDistanceField();
+
+		for (int i = 0; i < num_queries; i++) {
+			float end_x = ends[i*3], end_y = ends[i*3 + 1], end_z = ends[i*3 + 2];
+			if (use_clearance && clearances[i] > 0) {
+				float tmax = Math.max(Math.abs(end_x - starts[i*3]), Math.max(Math.abs(end_y - starts[i*3 + 1]), Math.abs(end_z - starts[i*3 + 2])));
+				float moved = Math.max(Math.abs(end_x - anchors[i*3]), Math.max(Math.abs(end_y - anchors[i*3 + 1]), Math.abs(end_z - anchors[i*3 + 2])));
+				if (moved + tmax + .01f + inflate < clearances[i]) {
+					hit_counts[i] = 0;
+					continue;
+				}
+			}
+			else if (distance_field != null) {
+				float tmax = Math.max(Math.abs(end_x - starts[i*3]), Math.max(Math.abs(end_y - starts[i*3 + 1]), Math.abs(end_z - starts[i*3 + 2])));
+				if (tmax + .01f + inflate < distance_field.getClearance(end_x, end_y, end_z)) {
+					hit_counts[i] = 0;
+					continue;
+				}
+			}
+			order[num_active_queries++] = i;
+		}
+	}
+
+	/**
+	 * Sorts the queries to be run by the Morton code of their end points, relative to the box
+	 * around all their end points.
+	 */
+	private void sortQueries() {
+		if (num_active_queries == 0) {
+			return;
+		}
+
+		float min_x = ends[order[0]*3], min_y = ends[order[0]*3 + 1], min_z = ends[order[0]*3 + 2];
+		float max_x = min_x, max_y = min_y, max_z = min_z;
+		for (int slot = 1; slot < num_active_queries; slot++) {
+			int i = order[slot];
+			min_x = Math.min(min_x, ends[i*3]);
+			min_y = Math.min(min_y, ends[i*3 + 1]);
+			min_z = Math.min(min_z, ends[i*3 + 2]);
+			max_x = Math.max(max_x, ends[i*3]);
+			max_y = Math.max(max_y, ends[i*3 + 1]);
+			max_z = Math.max(max_z, ends[i*3 + 2]);
+		}
+
+		float scale_x = MortonCode.getScale(min_x, max_x);
+		float scale_y = MortonCode.getScale(min_y, max_y);
+		float scale_z = MortonCode.getScale(min_z, max_z);
+
+//		Store the code in the top half of the key and the query in the bottom half, so
+//		sorting the keys sorts the queries.
+		for (int slot = 0; slot < num_active_queries; slot++) {
+			int i = order[slot];
+			int code = MortonCode.getCode((int) ((ends[i*3] - min_x)*scale_x),
+										(int) ((ends[i*3 + 1] - min_y)*scale_y),
+										(int) ((ends[i*3 + 2] - min_z)*scale_z));
+			sort_keys[slot] = ((long) code << 32) | i;
+		}
+		Arrays.sort(sort_keys, 0, num_active_queries);
+		for (int slot = 0; slot < num_active_queries; slot++) {
+			order[slot] = (int) sort_keys[slot];
+		}
+	}
+
+	/**
+	 * Computes the direction, tmax and box of each query in sorted order, and the box
+	 * around the queries of each packet. The box of a query holds the part of the ray
+	 * tested by FaceTable.detectCollision grown by the cushion, so it holds every face
+	 * the query can hit.
+	 */
+	private void computeQueryData() {
+		float inflate = cushion_amount + CollisionStructure.QUERY_EPSILON;
+
+		for (int slot = 0; slot < num_active_queries; slot++) {
+			int i = order[slot];
+			int q = slot*STRIDE;
+			float start_x = starts[i*3], start_y = starts[i*3 + 1], start_z = starts[i*3 + 2];
+			float end_x = ends[i*3], end_y = ends[i*3 + 1], end_z = ends[i*3 + 2];
+
+//			Compute the direction of the start to the end.
+			float dir_x = end_x - start_x;
+			float dir_y = end_y - start_y;
+			float dir_z = end_z - start_z;
+			float norm = (float) (1.0/Math.sqrt(dir_x*dir_x + dir_y*dir_y + dir_z*dir_z));
+			dir_x *= norm;
+			dir_y *= norm;
+			dir_z *= norm;
+			float tmax = Math.max(Math.abs(end_x - start_x), Math.max(Math.abs(end_y - start_y), Math.abs(end_z - start_z)));
+
+			float ahead_x = end_x, ahead_y = end_y, ahead_z = end_z;
+			if (tmax > 0) {
+				ahead_x += dir_x*(tmax + .01f);
+				ahead_y += dir_y*(tmax + .01f);
+				ahead_z += dir_z*(tmax + .01f);
+			}
+
+			query_data[q + END] = end_x;
+			query_data[q + END + 1] = end_y;
+			query_data[q + END + 2] = end_z;
+			query_data[q + DIR] = dir_x;
+			query_data[q + DIR + 1] = dir_y;
+			query_data[q + DIR + 2] = dir_z;
+			query_data[q + TMAX] = tmax;
+			query_data[q + MIN] = Math.min(end_x, ahead_x) - inflate;
+			query_data[q + MIN + 1] = Math.min(end_y, ahead_y) - inflate;
+			query_data[q + MIN + 2] = Math.min(end_z, ahead_z) - inflate;
+			query_data[q + MAX] = Math.max(end_x, ahead_x) + inflate;
+			query_data[q + MAX + 1] = Math.max(end_y, ahead_y) + inflate;
+			query_data[q + MAX + 2] = Math.max(end_z, ahead_z) + inflate;
+
+//			Grow the box of the packet.
+			int p = (slot/PACKET_SIZE)*6;
+			for (int axis = 0; axis < 3; axis++) {
+				if (slot % PACKET_SIZE == 0) {
+					packet_bounds[p + axis] = query_data[q + MIN + axis];
+					packet_bounds[p + 3 + axis] = query_data[q + MAX + axis];
+				}
+				else {
+					packet_bounds[p + axis] = Math.min(packet_bounds[p + axis], query_data[q + MIN + axis]);
+					packet_bounds[p + 3 + axis] = Math.max(packet_bounds[p + 3 + axis], query_data[q + MAX + axis]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a face to the faces hit by the given query, unless the query already hit it or has
+	 * no room left. The octree stores a face that lies on a split plane in each child it
+	 * touches, so the same face can be reported more than once, and only the first is kept so
+	 * the repeats don't use up the room.
+	 * @param query
+	 * @param face_index
+	 */
+	public void addHit(int query, int face_index) {
+		int start = query*MAX_HITS_PER_QUERY;
+		int count = hit_counts[query];
+		for (int i = start; i < start + count; i++) {
+			if (hits[i] == face_index) {
+				return;
+			}
+		}
+		if (count < MAX_HITS_PER_QUERY) {
+			hits[start + count] = face_index;
+			hit_counts[query] = count + 1;
+		}
+	}
+
+	/**
+	 * Returns the first slot in sorted order of the queries in the given packet.
+	 */
+	public int getPacketStart(int packet) {
+		return packet*PACKET_SIZE;
+	}
+
+	/**
+	 * Returns the slot after the last one in sorted order of the queries in the given packet.
+	 */
+	public int getPacketEnd(int packet) {
+		return Math.min((packet + 1)*PACKET_SIZE, num_active_queries);
+	}
+
+	/**
+	 * Returns a buffer of MAX_HITS_PER_QUERY entries that only the given worker uses.
+	 */
+	public int[] getScratchHits(int worker) {
+		return worker_scratch[worker];
+	}
+
+	/**
+	 * Setters
+	 */
+	public void setUseClearance(boolean use_clearance) {
+		this.use_clearance = use_clearance;
+		Arrays.fill(clearances, 0);
+	}
+
+	/**
+	 * Getters
+	 */
+	public int getNumQueries() {
+		return num_queries;
+	}
+	public int getNumActiveQueries() {
+		return num_active_queries;
+	}
+	public float getClearance(int query) {
+		return clearances[query];
+	}
+	public int getNumWorkers() {
+		return num_workers;
+	}
+	public int getHitCount(int query) {
+		return hit_counts[query];
+	}
+	public int getHit(int query, int hit) {
+		return hits[query*MAX_HITS_PER_QUERY + hit];
+	}
+	public int[] getHitCounts() {
+		return hit_counts;
+	}
+	public int[] getHits() {
+		return hits;
+	}
+	public int[] getOrder() {
+		return order;
+	}
+	public float[] getQueryData() {
+		return query_data;
+	}
+	public float[] getPacketBounds() {
+		return packet_bounds;
+	}
+	public float[] getStarts() {
+		return starts;
+	}
+	public float[] getEnds() {
+		return ends;
+	}
+	public float getCushionAmount() {
+		return cushion_amount;
+	}
+
+	/**
+	 * Runs every worker on its share of the packets.
+	 */
+	private class StepTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		protected void compute() {
+			for (PacketTask task : packet_tasks) {
+				task.reinitialize();
+			}
+			ForkJoinTask.invokeAll(packet_tasks);
+		}
+	}
+
+	/**
+	 * Runs one worker's contiguous range of packets. Each query belongs to exactly one
+	 * packet, so no 2 workers write the hits of the same query.
+	 */
+	private class PacketTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private int worker;
+
+		PacketTask(int worker) {
+			this.worker = worker;
+		}
+
+		protected void compute() {
+			int first = (int) ((long) num_packets*worker/num_workers);
+			int end = (int) ((long) num_packets*(worker + 1)/num_workers);
+			detectCollisions(first, end, worker);
+		}
+	}
+}
@@ -0,0 +1,425 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the faces of a static mesh, stored in a spatial hash. The cells are
+ * cubes about the size of an average face, and cell (x, y, z) counts from the minimum corner
+ * of the box around all the faces. Every face is stored in the bucket of each cell its bounding
+ * box touches. The faces of bucket i are stored in 'bucket_faces' from bucket_starts[i] up to
+ * bucket_starts[i + 1]. Cells that hash to the same bucket share it, so the faces of a bucket
+ * are checked against the query box before they are tested.
+ */
+public class CollisionGrid extends CollisionStructure {
+
+//	The cell size is doubled until the faces are stored in at most this many cells each
+//	on average, so a few large faces can't fill the grid.
+	public static final int MAX_CELLS_PER_FACE = 16;
+
+	private int num_faces;
+	private float cell_size;
+	private float inverse_cell_size;
+	private float[] bounds = new float[6];
+	private int[] num_cells = new int[3];
+	private int bucket_mask;
+	private int[] bucket_starts;
+	private int[] bucket_faces;
+
+//	Used to load a saved grid, see read.
+	CollisionGrid() {}
+
+	public CollisionGrid(ArrayList<Vertex> verts, ArrayList<Integer> faces) {
+		face_table = new FaceTable(verts, faces);
+		num_faces = face_table.getNumFaces();
+		float[] face_data = face_table.getData();
+
+//		Find the box around all the faces and the average size of a face, measured
+//		along the longest side of its bounding box.
+		float total_size = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[axis] = num_faces > 0 ? Float.MAX_VALUE : 0;
+			bounds[axis + 3] = num_faces > 0 ? -Float.MAX_VALUE : 0;
+		}
+		for (int i = 0; i < num_faces; i++) {
+			int f = i*FaceTable.STRIDE;
+			float size = 0;
+			for (int axis = 0; axis < 3; axis++) {
+				bounds[axis] = Math.min(bounds[axis], face_data[f + FaceTable.MIN + axis]);
+				bounds[axis + 3] = Math.max(bounds[axis + 3], face_data[f + FaceTable.MAX + axis]);
+				size = Math.max(size, face_data[f + FaceTable.MAX + axis] - face_data[f + FaceTable.MIN + axis]);
+			}
+			total_size += size;
+		}
+		cell_size = num_faces > 0 && total_size > 0 ? total_size/num_faces : 1;
+		setCellSize(cell_size);
+		while (countCells() > (long) MAX_CELLS_PER_FACE*num_faces) {
+			setCellSize(cell_size*2);
+		}
+
+//		Use a power of 2 buckets, at least as many as the cells the faces are stored in.
+		int num_entries = (int) countCells();
+		int num_buckets = 1;
+		while (num_buckets < num_entries) {
+			num_buckets *= 2;
+		}
+		bucket_mask = num_buckets - 1;
+
+//		Count the faces in each bucket, then store them. A face that touches 2 cells with
+//		the same bucket is only stored in it once.
+		bucket_starts = new int[num_buckets + 1];
+		int[] last_face = new int[num_buckets];
+		Arrays.fill(last_face, -1);
+		for (int i = 0; i < num_faces; i++) {
+			int f = i*FaceTable.STRIDE;
+			int min_x = getCell(face_data[f + FaceTable.MIN], 0), max_x = getCell(face_data[f + FaceTable.MAX], 0);
+			int min_y = getCell(face_data[f + FaceTable.MIN + 1], 1), max_y = getCell(face_data[f + FaceTable.MAX + 1], 1);
+			int min_z = getCell(face_data[f + FaceTable.MIN + 2], 2), max_z = getCell(face_data[f + FaceTable.MAX + 2], 2);
+			for (int z = min_z; z <= max_z; z++) {
+				for (int y = min_y; y <= max_y; y++) {
+					for (int x = min_x; x <= max_x; x++) {
+						int bucket = getBucket(x, y, z);
+						if (last_face[bucket] != i) {
+							last_face[bucket] = i;
+							bucket_starts[bucket + 1]++;
+						}
+					}
+				}
+			}
+		}
+		for (int i = 0; i < num_buckets; i++) {
+			bucket_starts[i + 1] += bucket_starts[i];
+		}
+
+		bucket_faces = new int[bucket_starts[num_buckets]];
+		int[] bucket_fill = Arrays.copyOf(bucket_starts, num_buckets);
+		Arrays.fill(last_face, -1);
+		for (int i = 0; i < num_faces; i++) {
+			int f = i*FaceTable.STRIDE;
+			int min_x = getCell(face_data[f + FaceTable.MIN], 0), max_x = getCell(face_data[f + FaceTable.MAX], 0);
+			int min_y = getCell(face_data[f + FaceTable.MIN + 1], 1), max_y = getCell(face_data[f + FaceTable.MAX + 1], 1);
+			int min_z = getCell(face_data[f + FaceTable.MIN + 2], 2), max_z = getCell(face_data[f + FaceTable.MAX + 2], 2);
+			for (int z = min_z; z <= max_z; z++) {
+				for (int y = min_y; y <= max_y; y++) {
+					for (int x = min_x; x <= max_x; x++) {
+						int bucket = getBucket(x, y, z);
+						if (last_face[bucket] != i) {
+							last_face[bucket] = i;
+							bucket_faces[bucket_fill[bucket]++] = i*3;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the size of the cells and the number of cells along each side of the grid.
+	 */
+	private void setCellSize(float cell_size) {
+		this.cell_size = cell_size;
+		inverse_cell_size = 1f/cell_size;
+		for (int axis = 0; axis < 3; axis++) {
+			num_cells[axis] = (int) ((bounds[axis + 3] - bounds[axis])*inverse_cell_size) + 1;
+		}
+	}
+
+	/**
+	 * Returns the number of cells the faces are stored in, counting a cell once for each
+	 * face in it.
+	 */
+	private long countCells() {
+		float[] face_data = face_table.getData();
+		long count = 0;
+		for (int i = 0; i < num_faces; i++) {
+			int f = i*FaceTable.STRIDE;
+			long cells = 1;
+			for (int axis = 0; axis < 3; axis++) {
+				cells *= getCell(face_data[f + FaceTable.MAX + axis], axis) - getCell(face_data[f + FaceTable.MIN + axis], axis) + 1;
+			}
+			count += cells;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the cell the coordinate is in along the given axis, which can be outside the grid.
+	 */
+	private int getUnclampedCell(float coordinate, int axis) {
+		return (int) Math.floor((coordinate - bounds[axis])*inverse_cell_size);
+	}
+
+	/**
+	 * Returns the cell of the grid closest to the coordinate along the given axis.
+	 */
+	private int getCell(float coordinate, int axis) {
+		return Math.max(0, Math.min(num_cells[axis] - 1, getUnclampedCell(coordinate, axis)));
+	}
+
+	private int getBucket(int x, int y, int z) {
+		return ((x*73856093) ^ (y*19349663) ^ (z*83492791)) & bucket_mask;
+	}
+
+	/**
+	 * Detects if there was a collision between the ray defined by the given points and a face in the
+	 * grid. A face can only collide if it lies within the cushion of the part of the ray tested by
+	 * FaceTable.detectCollision. That part is walked through the grid one cell at a time with a 3D-DDA,
+	 * and the cells within the cushion of each cell it passes through are looked at. Each step of the
+	 * walk moves one cell along one axis, so only the layer of cells it adds on that side is new.
+	 * A face is reported once even if it is in more than one of the cells.
+	 */
+	public int detectCollision(float start_x, float start_y, float start_z,
+								float end_x, float end_y, float end_z,
+								float cushion_amount, int[] collision_face_indices, int num_collisions) {
+
+//		Compute the direction of the start to the end.
+		float dir_x = end_x - start_x;
+		float dir_y = end_y - start_y;
+		float dir_z = end_z - start_z;
+		float norm = (float) (1.0/Math.sqrt(dir_x*dir_x + dir_y*dir_y + dir_z*dir_z));
+		dir_x *= norm;
+		dir_y *= norm;
+		dir_z *= norm;
+
+//		Compute tmax.
+		float tmax = Math.max(Math.abs(end_x - start_x), Math.max(Math.abs(end_y - start_y), Math.abs(end_z - start_z)));
+
+//		The ray is tested from the end point along the direction up to tmax + .01. If the vertex
+//		didn't move only the faces within the cushion of the end point can collide.
+		float ahead_x = end_x, ahead_y = end_y, ahead_z = end_z;
+		if (tmax > 0) {
+			ahead_x += dir_x*(tmax + .01f);
+			ahead_y += dir_y*(tmax + .01f);
+			ahead_z += dir_z*(tmax + .01f);
+		}
+		float inflate = cushion_amount + QUERY_EPSILON;
+		float min_x = Math.min(end_x, ahead_x) - inflate;
+		float min_y = Math.min(end_y, ahead_y) - inflate;
+		float min_z = Math.min(end_z, ahead_z) - inflate;
+		float max_x = Math.max(end_x, ahead_x) + inflate;
+		float max_y = Math.max(end_y, ahead_y) + inflate;
+		float max_z = Math.max(end_z, ahead_z) + inflate;
+
+		if (num_faces == 0 ||
+			bounds[0] > max_x || bounds[3] < min_x ||
+			bounds[1] > max_y || bounds[4] < min_y ||
+			bounds[2] > max_z || bounds[5] < min_z) {
+			return num_collisions;
+		}
+
+//		Every point within the cushion of a cell on the walk is in a cell at most 'pad'
+//		cells away from it.
+		int pad = (int) Math.ceil(inflate*inverse_cell_size);
+		int first_collision = num_collisions;
+
+//		Set up the walk from the cell of the end point to the cell of the end of the ray.
+		int cell_x = getUnclampedCell(end_x, 0), cell_y = getUnclampedCell(end_y, 1), cell_z = getUnclampedCell(end_z, 2);
+		int last_x = getUnclampedCell(ahead_x, 0), last_y = getUnclampedCell(ahead_y, 1), last_z = getUnclampedCell(ahead_z, 2);
+		int step_x = last_x >= cell_x ? 1 : -1, step_y = last_y >= cell_y ? 1 : -1, step_z = last_z >= cell_z ? 1 : -1;
+		int steps_x = Math.abs(last_x - cell_x), steps_y = Math.abs(last_y - cell_y), steps_z = Math.abs(last_z - cell_z);
+
+//		The fraction of the walk at which it crosses into the next cell along each axis,
+//		and the fraction it takes to cross a whole cell.
+		float length_x = Math.abs(ahead_x - end_x), length_y = Math.abs(ahead_y - end_y), length_z = Math.abs(ahead_z - end_z);
+		float delta_x = length_x > 0 ? cell_size/length_x : Float.MAX_VALUE;
+		float delta_y = length_y > 0 ? cell_size/length_y : Float.MAX_VALUE;
+		float delta_z = length_z > 0 ? cell_size/length_z : Float.MAX_VALUE;
+		float next_x = length_x > 0 ? Math.abs(bounds[0] + (cell_x + (step_x > 0 ? 1 : 0))*cell_size - end_x)/length_x : Float.MAX_VALUE;
+		float next_y = length_y > 0 ? Math.abs(bounds[1] + (cell_y + (step_y > 0 ? 1 : 0))*cell_size - end_y)/length_y : Float.MAX_VALUE;
+		float next_z = length_z > 0 ? Math.abs(bounds[2] + (cell_z + (step_z > 0 ? 1 : 0))*cell_size - end_z)/length_z : Float.MAX_VALUE;
+
+//		Look at the whole block of cells around the first cell, then at the new layer of
+//		the block after each step.
+		num_collisions = detectCollision(cell_x - pad, cell_y - pad, cell_z - pad, cell_x + pad, cell_y + pad, cell_z + pad,
+										min_x, min_y, min_z, max_x, max_y, max_z,
+										end_x, end_y, end_z, dir_x, dir_y, dir_z, tmax,
+										cushion_amount, collision_face_indices, first_collision, num_collisions);
+		while (steps_x + steps_y + steps_z > 0) {
+			int layer_min_x = cell_x - pad, layer_min_y = cell_y - pad, layer_min_z = cell_z - pad;
+			int layer_max_x = cell_x + pad, layer_max_y = cell_y + pad, layer_max_z = cell_z + pad;
+			if (steps_x > 0 && (steps_y == 0 || next_x <= next_y) && (steps_z == 0 || next_x <= next_z)) {
+				cell_x += step_x;
+				next_x += delta_x;
+				steps_x--;
+				layer_min_x = layer_max_x = cell_x + step_x*pad;
+			}
+			else if (steps_y > 0 && (steps_z == 0 || next_y <= next_z)) {
+				cell_y += step_y;
+				next_y += delta_y;
+				steps_y--;
+				layer_min_y = layer_max_y = cell_y + step_y*pad;
+			}
+			else {
+				cell_z += step_z;
+				next_z += delta_z;
+				steps_z--;
+				layer_min_z = layer_max_z = cell_z + step_z*pad;
+			}
+			num_collisions = detectCollision(layer_min_x, layer_min_y, layer_min_z, layer_max_x, layer_max_y, layer_max_z,
+											min_x, min_y, min_z, max_x, max_y, max_z,
+											end_x, end_y, end_z, dir_x, dir_y, dir_z, tmax,
+											cushion_amount, collision_face_indices, first_collision, num_collisions);
+		}
+
+		return num_collisions;
+	}
+
+	/**
+	 * Tests the faces in the given block of cells whose bounding boxes overlap the query box.
+	 * @param first_collision The first entry of 'collision_face_indices' used by this query.
+	 */
+	private int detectCollision(int cell_min_x, int cell_min_y, int cell_min_z, int cell_max_x, int cell_max_y, int cell_max_z,
+								float min_x, float min_y, float min_z, float max_x, float max_y, float max_z,
+								float end_x, float end_y, float end_z, float dir_x, float dir_y, float dir_z, float tmax,
+								float cushion_amount, int[] collision_face_indices, int first_collision, int num_collisions) {
+//		A face that can be hit has a point in the query box within the cushion of the walk, and it is
+//		stored in the cell of that point, so the cells outside the query box can be left out.
+		cell_min_x = Math.max(cell_min_x, getCell(min_x, 0));
+		cell_min_y = Math.max(cell_min_y, getCell(min_y, 1));
+		cell_min_z = Math.max(cell_min_z, getCell(min_z, 2));
+		cell_max_x = Math.min(cell_max_x, getCell(max_x, 0));
+		cell_max_y = Math.min(cell_max_y, getCell(max_y, 1));
+		cell_max_z = Math.min(cell_max_z, getCell(max_z, 2));
+
+		for (int z = cell_min_z; z <= cell_max_z; z++) {
+			for (int y = cell_min_y; y <= cell_max_y; y++) {
+				for (int x = cell_min_x; x <= cell_max_x; x++) {
+					int bucket = getBucket(x, y, z);
+					for (int i = bucket_starts[bucket]; i < bucket_starts[bucket + 1] && num_collisions < collision_face_indices.length; i++) {
+						int face_index = bucket_faces[i];
+						if (!face_table.overlapsBox(face_index, min_x, min_y, min_z, max_x, max_y, max_z) ||
+							!face_table.detectCollision(face_index, end_x, end_y, end_z, dir_x, dir_y, dir_z, tmax, cushion_amount) ||
+							contains(collision_face_indices, first_collision, num_collisions, face_index)) {
+							continue;
+						}
+						collision_face_indices[num_collisions++] = face_index;
+					}
+				}
+			}
+		}
+		return num_collisions;
+	}
+
+	/**
+	 * Returns whether or not the given box overlaps the bounding box of a face in the grid.
+	 * A box that covers more cells than there are faces is checked against every face.
+	 */
+	public boolean overlapsFaces(float min_x, float min_y, float min_z, float max_x, float max_y, float max_z) {
+		if (num_faces == 0 ||
+			bounds[0] > max_x || bounds[3] < min_x ||
+			bounds[1] > max_y || bounds[4] < min_y ||
+			bounds[2] > max_z || bounds[5] < min_z) {
+			return false;
+		}
+		int cell_min_x = getCell(min_x, 0), cell_max_x = getCell(max_x, 0);
+		int cell_min_y = getCell(min_y, 1), cell_max_y = getCell(max_y, 1);
+		int cell_min_z = getCell(min_z, 2), cell_max_z = getCell(max_z, 2);
+
+		if ((long) (cell_max_x - cell_min_x + 1)*(cell_max_y - cell_min_y + 1)*(cell_max_z - cell_min_z + 1) > num_faces) {
+			for (int i = 0; i < num_faces; i++) {
+				if (face_table.overlapsBox(i*3, min_x, min_y, min_z, max_x, max_y, max_z)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		for (int z = cell_min_z; z <= cell_max_z; z++) {
+			for (int y = cell_min_y; y <= cell_max_y; y++) {
+				for (int x = cell_min_x; x <= cell_max_x; x++) {
+					int bucket = getBucket(x, y, z);
+					for (int i = bucket_starts[bucket]; i < bucket_starts[bucket + 1]; i++) {
+						if (face_table.overlapsBox(bucket_faces[i], min_x, min_y, min_z, max_x, max_y, max_z)) {
+							return true;
+						}
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the distance from the point to the closest face box in the grid, or the maximum
+	 * if none is closer. The cells of a cube around the point are searched, and the cube is
+	 * doubled until the closest face found is inside it. A face box closer than that would
+	 * touch one of the searched cells, so it would have been found.
+	 */
+	public float getClearance(float x, float y, float z, float max_clearance) {
+		if (num_faces == 0 ||
+			getBoxDistance(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5], x, y, z) >= max_clearance) {
+			return max_clearance;
+		}
+
+		for (float radius = cell_size; ; radius *= 2) {
+			radius = Math.min(radius, max_clearance);
+			int min_x = getCell(x - radius, 0), max_x = getCell(x + radius, 0);
+			int min_y = getCell(y - radius, 1), max_y = getCell(y + radius, 1);
+			int min_z = getCell(z - radius, 2), max_z = getCell(z + radius, 2);
+
+			float clearance = max_clearance;
+			if ((long) (max_x - min_x + 1)*(max_y - min_y + 1)*(max_z - min_z + 1) > num_faces) {
+				for (int i = 0; i < num_faces; i++) {
+					clearance = Math.min(clearance, face_table.getBoxDistance(i*3, x, y, z));
+				}
+				return clearance;
+			}
+
+			for (int cell_z = min_z; cell_z <= max_z; cell_z++) {
+				for (int cell_y = min_y; cell_y <= max_y; cell_y++) {
+					for (int cell_x = min_x; cell_x <= max_x; cell_x++) {
+						int bucket = getBucket(cell_x, cell_y, cell_z);
+						for (int i = bucket_starts[bucket]; i < bucket_starts[bucket + 1]; i++) {
+							clearance = Math.min(clearance, face_table.getBoxDistance(bucket_faces[i], x, y, z));
+						}
+					}
+				}
+			}
+			if (clearance <= radius || radius == max_clearance) {
+				return clearance;
+			}
+		}
+	}
+
+	private static boolean contains(int[] values, int first, int end, int value) {
+		for (int i = first; i < end; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	protected void write(DataOutputStream out) throws IOException {
+		out.writeInt(num_faces);
+		out.writeFloat(cell_size);
+		writeFloats(out, bounds, 6);
+		out.writeInt(bucket_mask);
+		writeInts(out, bucket_starts, bucket_starts.length);
+		writeInts(out, bucket_faces, bucket_faces.length);
+	}
+
+	protected void read(ByteBuffer in) {
+		num_faces = in.getInt();
+		float cell_size = in.getFloat();
+		bounds = readFloats(in);
+		setCellSize(cell_size);
+		bucket_mask = in.getInt();
+		bucket_starts = readInts(in);
+		bucket_faces = readInts(in);
+	}
+
+	/**
+	 * Getters
+	 */
+	public float getCellSize() {
+		return cell_size;
+	}
+	public int[] getNumCells() {
+		return num_cells;
+	}
+	public int getNumBuckets() {
+		return bucket_mask + 1;
+	}
+}
@@ -0,0 +1,409 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import javax.vecmath.Point3f;
+
+/**
+ * An acceleration structure over the faces of a static mesh that finds the faces a moving
+ * vertex collides with. All the structures share the same per face test in FaceTable, so
+ * they only differ in which faces they look at.
+ */
+public abstract class CollisionStructure {
+
+	public static final String OCTREE = "octree";
+	public static final String LOOSE_OCTREE = "loose";
+	public static final String BVH = "bvh";
+	public static final String GRID = "grid";
+
+//	The structure built by create(verts, faces), set with -Djello.collision=<type>.
+	public static final String DEFAULT_TYPE = System.getProperty("jello.collision", OCTREE);
+
+//	The settings of the loose octree, set with -Djello.collision.looseness=<factor>
+//	and -Djello.collision.max_leaf_faces=<count>.
+	public static final float LOOSENESS = Float.parseFloat(System.getProperty("jello.collision.looseness", "2"));
+	public static final int MAX_LEAF_FACES = Integer.parseInt(System.getProperty("jello.collision.max_leaf_faces", "8"));
+
+//	Whether or not the octrees grow the segment of a query by the cushion, set with
+//	-Djello.collision.pad_by_cushion=<true|false>.
+	public static final boolean PAD_BY_CUSHION = Boolean.parseBoolean(System.getProperty("jello.collision.pad_by_cushion", "true"));
+
+//	Whether or not the octrees build their subtrees in parallel, set with
+//	-Djello.collision.parallel_build=<true|false>.
+	public static final boolean PARALLEL_BUILD = Boolean.parseBoolean(System.getProperty("jello.collision.parallel_build", "true"));
+
+//	Whether or not built structures are saved next to their mesh and loaded from there by
+//	later runs, set with -Djello.collision.cache=<true|false>.
+	public static final boolean USE_CACHE = Boolean.parseBoolean(System.getProperty("jello.collision.cache", "true"));
+
+	private static final int CACHE_MAGIC = 0x4A434F4C;
+	private static final int CACHE_VERSION = 1;
+
+//	Added to the boxes around queries to make up for rounding in the ray-triangle test.
+	protected static final float QUERY_EPSILON = 1e-4f;
+
+	protected FaceTable face_table;
+
+//	When it is set, a CollisionBatch reads the clearances of its queries from this field and
+//	skips the queries it shows can't reach a face. The faces a vertex collides with are still
+//	found with detectCollision, so the field never changes the contacts.
+	private DistanceField distance_field;
+
+	/**
+	 * Builds the default type of collision structure over the given faces.
+	 * @param verts
+	 * @param faces
+	 * @return
+	 */
+	public static CollisionStructure create(ArrayList<Vertex> verts, ArrayList<Integer> faces) {
+		return create(DEFAULT_TYPE, verts, faces);
+	}
+
+	/**
+	 * Builds a collision structure over the given faces.
+	 * @param type OCTREE, LOOSE_OCTREE, BVH or GRID.
+	 * @param verts
+	 * @param faces
+	 * @return
+	 */
+	public static CollisionStructure create(String type, ArrayList<Vertex> verts, ArrayList<Integer> faces) {
+		if (type.equals(OCTREE)) {
+			CollisionTree tree = new CollisionTree(verts, faces);
+			tree.setPadByCushion(PAD_BY_CUSHION);
+			return tree;
+		}
+		else if (type.equals(LOOSE_OCTREE)) {
+			CollisionTree tree = new CollisionTree(verts, faces, LOOSENESS, MAX_LEAF_FACES);
+			tree.setPadByCushion(PAD_BY_CUSHION);
+			return tree;
+		}
+		else if (type.equals(BVH)) {
+			return new CollisionBVH(verts, faces);
+		}
+		else if (type.equals(GRID)) {
+			return new CollisionGrid(verts, faces);
+		}
+		throw new IllegalArgumentException("Unknown collision structure: " + type);
+	}
+
+	/**
+	 * Returns an empty structure of the given type, to be filled by readCache.
+	 */
+	private static CollisionStructure createEmpty(String type) {
+		if (type.equals(OCTREE) || type.equals(LOOSE_OCTREE)) {
+			CollisionTree tree = new CollisionTree();
+			tree.setPadByCushion(PAD_BY_CUSHION);
+			return tree;
+		}
+		else if (type.equals(BVH)) {
+			return new CollisionBVH();
+		}
+		else if (type.equals(GRID)) {
+			return new CollisionGrid();
+		}
+		throw new IllegalArgumentException("Unknown collision structure: " + type);
+	}
+
+	/**
+	 * Builds the default type of collision structure over the faces of the given mesh, or loads it
+	 * from the cache file next to the mesh if an earlier run saved one for the same faces. The cache
+	 * file stores a hash of the faces and the build settings, so a structure is rebuilt whenever
+	 * the mesh changes.
+	 * @param mesh_filename The file the mesh was loaded from.
+	 * @param verts
+	 * @param faces
+	 * @return
+	 */
+	public static CollisionStructure load(String mesh_filename, ArrayList<Vertex> verts, ArrayList<Integer> faces) {
+		if (!USE_CACHE) {
+			return create(verts, faces);
+		}
+		FaceTable face_table = new FaceTable(verts, faces);
+		long key = getCacheKey(DEFAULT_TYPE, face_table);
+		File file = new File(mesh_filename + "." + DEFAULT_TYPE + ".cache");
+
+		CollisionStructure structure = readCache(file, key, DEFAULT_TYPE, face_table);
+		if (structure == null) {
+			structure = create(verts, faces);
+			structure.writeCache(file, key);
+		}
+		return structure;
+	}
+
+	/**
+	 * Returns a hash of the faces, the type of structure and the settings it is built with.
+	 */
+	private static long getCacheKey(String type, FaceTable face_table) {
+		long hash = face_table.getContentHash();
+		for (int i = 0; i < type.length(); i++) {
+			hash = (hash ^ type.charAt(i))*0x100000001b3L;
+		}
+		hash = (hash ^ Float.floatToIntBits(LOOSENESS))*0x100000001b3L;
+		hash = (hash ^ MAX_LEAF_FACES)*0x100000001b3L;
+		return hash;
+	}
+
+	/**
+	 * Maps the given cache file into memory and reads the structure in it.
+	 * @return The structure, or null if the file doesn't exist or was saved for other faces.
+	 */
+	private static CollisionStructure readCache(File file, long key, String type, FaceTable face_table) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			ByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+			if (in.length() < 16 || buffer.getInt() != CACHE_MAGIC || buffer.getInt() != CACHE_VERSION || buffer.getLong() != key) {
+				return null;
+			}
+			CollisionStructure structure = createEmpty(type);
+			structure.face_table = face_table;
+			structure.read(buffer);
+			return structure;
+		} catch (IOException e) {
+			System.out.println("Error reading from file " + file);
+			return null;
+		} catch (BufferUnderflowException e) {
+			System.out.println("Error reading from file " + file);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the structure to the given cache file. A structure that can't be saved is still
+	 * used, it is just built again next time.
+	 */
+	private void writeCache(File file, long key) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(CACHE_MAGIC);
+			out.writeInt(CACHE_VERSION);
+			out.writeLong(key);
+			write(out);
+		} catch (IOException e) {
+			System.out.println("Error writing to file " + file);
+		}
+	}
+
+	/**
+	 * Writes everything the structure built over its faces. The face table is not written,
+	 * since it is rebuilt from the mesh.
+	 * @param out
+	 * @throws IOException
+	 */
+	protected abstract void write(DataOutputStream out) throws IOException;
+
+	/**
+	 * Reads back what write wrote. The face table is already set.
+	 * @param in
+	 */
+	protected abstract void read(ByteBuffer in);
+
+	protected static void writeFloats(DataOutputStream out, float[] values, int count) throws IOException {
+		out.writeInt(count);
+		for (int i = 0; i < count; i++) {
+			out.writeFloat(values[i]);
+		}
+	}
+
+	protected static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+		out.writeInt(count);
+		for (int i = 0; i < count; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	/**
+	 * Reads the number of items that follow, and checks that there are enough bytes left
+	 * for them. A bad count reads as a truncated file, so the structure is built again.
+	 * @param in
+	 * @param bytes_per_item The fewest bytes each item takes.
+	 * @return
+	 */
+	protected static int readCount(ByteBuffer in, int bytes_per_item) {
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining()/bytes_per_item) {
+			throw new BufferUnderflowException();
+		}
+		return count;
+	}
+
+	protected static float[] readFloats(ByteBuffer in) {
+		float[] values = new float[readCount(in, 4)];
+		in.asFloatBuffer().get(values);
+		in.position(in.position() + values.length*4);
+		return values;
+	}
+
+	protected static int[] readInts(ByteBuffer in) {
+		int[] values = new int[readCount(in, 4)];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + values.length*4);
+		return values;
+	}
+
+	/**
+	 * Detects if there was a collision between the ray defined by the given points and a face in the structure.
+	 * @param start
+	 * @param end
+	 * @param cushion_amount
+	 * @return An ArrayList containing the starting indices of all colliding faces.
+	 */
+	public ArrayList<Integer> detectCollision(Point3f start, Point3f end, float cushion_amount) {
+
+		ArrayList<Integer> collision_face_indices = new ArrayList<Integer>();
+		int[] hits = new int[Math.max(face_table.getNumFaces(), 1)];
+
+//		A structure can store a face in more than one node, so it can be hit more
+//		than once. Grow the array until all the hits fit.
+		int num_hits = detectCollision(start.x, start.y, start.z, end.x, end.y, end.z, cushion_amount, hits, 0);
+		while (num_hits == hits.length) {
+			hits = new int[hits.length*2];
+			num_hits = detectCollision(start.x, start.y, start.z, end.x, end.y, end.z, cushion_amount, hits, 0);
+		}
+		for (int i = 0; i < num_hits; i++) {
+			collision_face_indices.add(hits[i]);
+		}
+
+		return collision_face_indices;
+	}
+
+	/**
+	 * Detects if there was a collision between the ray defined by the given points and a face in the
+	 * structure. This gives the same result as the version that returns an ArrayList, but writes
+	 * the starting indices of the colliding faces into the given array so it does not allocate anything.
+	 * @param cushion_amount
+	 * @param collision_face_indices Filled with the starting indices of all colliding faces. Any
+	 * collisions that don't fit in the array are dropped.
+	 * @param num_collisions The number of entries already used in 'collision_face_indices'.
+	 * @return The number of entries used in 'collision_face_indices'.
+	 */
+	public abstract int detectCollision(float start_x, float start_y, float start_z,
+										float end_x, float end_y, float end_z,
+										float cushion_amount, int[] collision_face_indices, int num_collisions);
+
+	/**
+	 * The broad phase for a whole object. Returns whether or not any of the given vertices can
+	 * collide with a face while moving from its start to its end point. This is false when the
+	 * box swept by all the vertices, grown by how far the collision test can reach past the end
+	 * points, overlaps the bounding box of no face in the structure. The vertex level queries can
+	 * then be skipped, since they would not find anything.
+	 * @param starts The start point of each vertex, 3 floats per vertex.
+	 * @param ends The end point of each vertex, 3 floats per vertex.
+	 * @param num_verts
+	 * @param cushion_amount
+	 * @return
+	 */
+	public boolean mayCollide(float[] starts, float[] ends, int num_verts, float cushion_amount) {
+		if (num_verts == 0) {
+			return false;
+		}
+
+		float min_x = ends[0], min_y = ends[1], min_z = ends[2];
+		float max_x = min_x, max_y = min_y, max_z = min_z;
+		float max_length_squared = 0;
+		for (int i = 0; i < num_verts*3; i += 3) {
+			float start_x = starts[i], start_y = starts[i + 1], start_z = starts[i + 2];
+			float end_x = ends[i], end_y = ends[i + 1], end_z = ends[i + 2];
+			min_x = Math.min(min_x, Math.min(start_x, end_x));
+			min_y = Math.min(min_y, Math.min(start_y, end_y));
+			min_z = Math.min(min_z, Math.min(start_z, end_z));
+			max_x = Math.max(max_x, Math.max(start_x, end_x));
+			max_y = Math.max(max_y, Math.max(start_y, end_y));
+			max_z = Math.max(max_z, Math.max(start_z, end_z));
+
+			float d_x = end_x - start_x, d_y = end_y - start_y, d_z = end_z - start_z;
+			max_length_squared = Math.max(max_length_squared, d_x*d_x + d_y*d_y + d_z*d_z);
+		}
+
+//		The ray of a query reaches at most its length plus .01 past the end point, and the
+//		faces it finds are at most the cushion away from that ray.
+		float reach = (float) Math.sqrt(max_length_squared) + .01f + cushion_amount + QUERY_EPSILON;
+		return overlapsFaces(min_x - reach, min_y - reach, min_z - reach, max_x + reach, max_y + reach, max_z + reach);
+	}
+
+	/**
+	 * Returns whether or not the given box overlaps the bounding box of a face in the structure.
+	 * @return
+	 */
+	public abstract boolean overlapsFaces(float min_x, float min_y, float min_z, float max_x, float max_y, float max_z);
+
+	/**
+	 * Returns the distance from the given point to the closest bounding box of a face in the
+	 * structure, measured along the axis where it is largest, or the given maximum if no box is
+	 * closer than that. A query box that stays within this distance of the point on every axis
+	 * can't overlap any face box, so the query can't hit anything.
+	 * @param max_clearance
+	 * @return
+	 */
+	public abstract float getClearance(float x, float y, float z, float max_clearance);
+
+	/**
+	 * Returns whether or not 2 boxes, each stored as min x, y, z then max x, y, z, overlap.
+	 */
+	protected static boolean boxesOverlap(float[] a, int a_offset, float[] b, int b_offset) {
+		return a[a_offset] <= b[b_offset + 3] && a[a_offset + 3] >= b[b_offset] &&
+			   a[a_offset + 1] <= b[b_offset + 4] && a[a_offset + 4] >= b[b_offset + 1] &&
+			   a[a_offset + 2] <= b[b_offset + 5] && a[a_offset + 5] >= b[b_offset + 2];
+	}
+
+	/**
+	 * Returns the distance from the point to the box along the axis where it is largest,
+	 * or 0 if the point is inside the box.
+	 */
+	protected static float getBoxDistance(float min_x, float min_y, float min_z, float max_x, float max_y, float max_z,
+										float x, float y, float z) {
+		float d_x = Math.max(min_x - x, x - max_x);
+		float d_y = Math.max(min_y - y, y - max_y);
+		float d_z = Math.max(min_z - z, z - max_z);
+		return Math.max(0, Math.max(d_x, Math.max(d_y, d_z)));
+	}
+
+	/**
+	 * Runs the queries of one packet of a batch, and adds the faces each query hits to the batch.
+	 * This runs the queries of the packet one at a time. Structures that can share the work
+	 * between the queries of a packet override it.
+	 * @param batch
+	 * @param packet
+	 * @param worker The worker running the packet, whose scratch buffer can be used.
+	 */
+	public void detectCollisions(CollisionBatch batch, int packet, int worker) {
+		int[] order = batch.getOrder();
+		float[] starts = batch.getStarts();
+		float[] ends = batch.getEnds();
+		int[] scratch = batch.getScratchHits(worker);
+
+		for (int slot = batch.getPacketStart(packet); slot < batch.getPacketEnd(packet); slot++) {
+			int query = order[slot];
+			int num_hits = detectCollision(starts[query*3], starts[query*3 + 1], starts[query*3 + 2],
+											ends[query*3], ends[query*3 + 1], ends[query*3 + 2],
+											batch.getCushionAmount(), scratch, 0);
+			for (int i = 0; i < num_hits; i++) {
+				batch.addHit(query, scratch[i]);
+			}
+		}
+	}
+
+	/**
+	 * Setters
+	 */
+	public void setDistanceField(DistanceField distance_field) {
+		this.distance_field = distance_field;
+	}
+
+	/**
+	 * Getters
+	 */
+	public FaceTable getFaceTable() {
+		return face_table;
+	}
+	public DistanceField getDistanceField() {
+		return distance_field;
+	}
+}
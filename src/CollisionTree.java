@@ -1,28 +1,53 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import javax.vecmath.Point3f;
 import javax.vecmath.Vector3f;
 
 
 
-public class CollisionTree { 
+public class CollisionTree extends CollisionStructure { 
 	private Vector3f min, max;
 	private ArrayList<Integer> face_indices = new ArrayList<Integer>();
     private ArrayList<CollisionTree> children = new ArrayList<CollisionTree>();
     private int num_divisions = 2;
     
+//  Whether or not the segment of a query is grown by the cushion when picking the children to visit.
+    private boolean pad_by_cushion = true;
+    
+//  Used by the loose build to stop faces that are all in the same place from splitting forever.
+    public static final int MAX_LOOSE_DEPTH = 16;
+    
+//  Nodes with at least this many faces build their children as separate fork-join tasks.
+    public static final int PARALLEL_MIN_FACES = 512;
+    
     public CollisionTree() {}
     
     public CollisionTree(ArrayList<Vertex> verts, ArrayList<Integer> faces) { 
     	
-    	System.out.println("CollisionTree()");
-    	System.out.println("verts.size() = " + verts.size());
-    	System.out.println("faces.size() = " + faces.size());
+    	face_table = new FaceTable(verts, faces);
+    	
+    	final int[] face_starts = new int[faces.size()/3];
+    	for (int i = 0; i < face_starts.length; i++) {
+    		face_starts[i] = i*3;
+    	}
     	
     	computeBoundingBox(verts);
-    	computeChildren(verts, faces);
+    	if (PARALLEL_BUILD) {
+    		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+    			protected void compute() {
+    				computeChildren(face_starts, 0, face_starts.length);
+    			}
+    		});
+    	}
+    	else {
+    		computeChildren(face_starts, 0, face_starts.length);
+    	}
     }
     
     /* find the bounding box for the vertices */
@@ -47,211 +72,570 @@ public class CollisionTree {
 	}
 	
 	/**
-	 * Divide up the bounding box of the node into 8 cubes and compute the children of the node. 
-	 * Any faces that don[t fit into a child get assigned to the node.
+	 * Builds a loose octree over the faces. Each child box is the octant of its parent grown
+	 * around its center by the looseness factor, and a face is pushed down into the child
+	 * of the octant holding its center if it fits inside that child's box. Faces that
+	 * straddle the split planes of a node can then still go down the tree, instead of all
+	 * of them staying in the node like they do in the default build.
 	 * @param verts
 	 * @param faces
+	 * @param looseness How much bigger than its octant each child box is, at least 1.
+	 * A looseness of 2 lets every face that is at most half the width of an octant go down.
+	 * @param max_leaf_faces Nodes with this many faces or less are not split.
+	 */
+	public CollisionTree(ArrayList<Vertex> verts, ArrayList<Integer> faces, float looseness, int max_leaf_faces) {
+		
+		face_table = new FaceTable(verts, faces);
+		
+		final int[] face_starts = new int[faces.size()/3];
+		for (int i = 0; i < face_starts.length; i++) {
+			face_starts[i] = i*3;
+		}
+		
+		computeBoundingBox(verts);
+		final float clamped_looseness = Math.max(looseness, 1f);
+		final int clamped_max_leaf_faces = Math.max(max_leaf_faces, 1);
+		if (PARALLEL_BUILD) {
+			ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+				protected void compute() {
+					computeLooseChildren(face_starts, 0, face_starts.length, clamped_looseness, clamped_max_leaf_faces, 
+										min.x, min.y, min.z, max.x, max.y, max.z, 0);
+				}
+			});
+		}
+		else {
+			computeLooseChildren(face_starts, 0, face_starts.length, clamped_looseness, clamped_max_leaf_faces, 
+								min.x, min.y, min.z, max.x, max.y, max.z, 0);
+		}
+	}
+	
+	/**
+	 * Splits the faces of the node between its loose children.
+	 * @param face_starts Holds the starting indices in the face list of the faces inside the node,
+	 * from 'first' up to 'end'.
+	 * @param first
+	 * @param end
+	 * @param looseness
+	 * @param max_leaf_faces
+	 * @param cell_min_x The octant of the node, before it was grown by the looseness factor.
+	 * @param depth The depth of the node, where the root is 0.
 	 */
-	private void computeChildren(ArrayList<Vertex> verts, ArrayList<Integer> faces) {
+	private void computeLooseChildren(int[] face_starts, int first, int end, final float looseness, final int max_leaf_faces, 
+									float cell_min_x, float cell_min_y, float cell_min_z, 
+									float cell_max_x, float cell_max_y, float cell_max_z, final int depth) {
+		
+		if (end - first <= max_leaf_faces || depth == MAX_LOOSE_DEPTH) {
+			for (int i = first; i < end; i++) {
+				face_indices.add(face_starts[i]);
+			}
+			return;
+		}
 		
-		System.out.println("computeChildren()");
+//		The size of the octants and of the loose boxes around them.
+		float half_x = (cell_max_x - cell_min_x)/num_divisions;
+		float half_y = (cell_max_y - cell_min_y)/num_divisions;
+		float half_z = (cell_max_z - cell_min_z)/num_divisions;
+		float grow_x = half_x*(looseness - 1)/2;
+		float grow_y = half_y*(looseness - 1)/2;
+		float grow_z = half_z*(looseness - 1)/2;
 		
+		int[] octants = new int[end - first];
+		int[] child_counts = new int[8];
+		float[] face_data = face_table.getData();
+		
+//		Put each face into the octant holding the center of its bounding box, if the face fits
+//		inside the loose box of the octant.
+		for (int i = first; i < end; i++) {
+			int f = (face_starts[i]/3)*FaceTable.STRIDE;
+			float face_min_x = face_data[f + FaceTable.MIN];
+			float face_min_y = face_data[f + FaceTable.MIN + 1];
+			float face_min_z = face_data[f + FaceTable.MIN + 2];
+			float face_max_x = face_data[f + FaceTable.MAX];
+			float face_max_y = face_data[f + FaceTable.MAX + 1];
+			float face_max_z = face_data[f + FaceTable.MAX + 2];
+			
+			int j = (face_min_x + face_max_x)*.5f >= cell_min_x + half_x ? 1 : 0;
+			int k = (face_min_y + face_max_y)*.5f >= cell_min_y + half_y ? 1 : 0;
+			int m = (face_min_z + face_max_z)*.5f >= cell_min_z + half_z ? 1 : 0;
+			
+			float loose_min_x = cell_min_x + half_x*j - grow_x;
+			float loose_min_y = cell_min_y + half_y*k - grow_y;
+			float loose_min_z = cell_min_z + half_z*m - grow_z;
+			if (face_min_x >= loose_min_x && face_max_x <= loose_min_x + half_x + grow_x*2 &&
+				face_min_y >= loose_min_y && face_max_y <= loose_min_y + half_y + grow_y*2 &&
+				face_min_z >= loose_min_z && face_max_z <= loose_min_z + half_z + grow_z*2) {
+				
+				octants[i - first] = m*4 + k*2 + j;
+				child_counts[m*4 + k*2 + j]++;
+			}
+			else {
+				octants[i - first] = -1;
+				face_indices.add(face_starts[i]);
+			}
+		}
+		
+//		Group the faces of the children by octant.
+		int[] child_firsts = new int[9];
+		for (int key = 0; key < 8; key++) {
+			child_firsts[key + 1] = child_firsts[key] + child_counts[key];
+		}
+		final int[] child_faces = new int[child_firsts[8]];
+		int[] child_fill = new int[8];
+		for (int i = first; i < end; i++) {
+			int key = octants[i - first];
+			if (key >= 0) {
+				child_faces[child_firsts[key] + child_fill[key]++] = face_starts[i];
+			}
+		}
+		
+//		Recursively create the children that have faces, as separate tasks if the node is big.
+		boolean fork = PARALLEL_BUILD && end - first >= PARALLEL_MIN_FACES;
+		ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (int key = 0; key < 8; key++) {
+			if (child_counts[key] == 0) {
+				continue;
+			}
+			int j = key % 2, k = (key/2) % 2, m = key/4;
+			final float child_min_x = cell_min_x + half_x*j;
+			final float child_min_y = cell_min_y + half_y*k;
+			final float child_min_z = cell_min_z + half_z*m;
+			final float child_max_x = child_min_x + half_x;
+			final float child_max_y = child_min_y + half_y;
+			final float child_max_z = child_min_z + half_z;
+			final int child_first = child_firsts[key];
+			final int child_end = child_firsts[key + 1];
+			
+			final CollisionTree child = new CollisionTree();
+			child.min = new Vector3f(child_min_x - grow_x, child_min_y - grow_y, child_min_z - grow_z);
+			child.max = new Vector3f(child_max_x + grow_x, child_max_y + grow_y, child_max_z + grow_z);
+			child.face_table = face_table;
+			children.add(child);
+			
+			RecursiveAction task = new RecursiveAction() {
+				protected void compute() {
+					child.computeLooseChildren(child_faces, child_first, child_end, looseness, max_leaf_faces, 
+												child_min_x, child_min_y, child_min_z, 
+												child_max_x, child_max_y, child_max_z, depth + 1);
+				}
+			};
+			if (fork) {
+				tasks.add(task);
+			}
+			else {
+				task.invoke();
+			}
+		}
+		ForkJoinTask.invokeAll(tasks);
+	}
+	
+	/**
+	 * Sets whether or not the segment of a query is grown by the cushion when picking the
+	 * children to visit. With the padding a query finds every colliding face. Without it
+	 * the query visits fewer children, but can miss faces in a neighbouring child that the
+	 * vertex is only within the cushion of.
+	 * @param pad_by_cushion
+	 */
+	public void setPadByCushion(boolean pad_by_cushion) {
+		this.pad_by_cushion = pad_by_cushion;
+	}
+	
+	/**
+	 * Writes the node, then its children in order.
+	 */
+	protected void write(DataOutputStream out) throws IOException {
+		out.writeFloat(min.x);
+		out.writeFloat(min.y);
+		out.writeFloat(min.z);
+		out.writeFloat(max.x);
+		out.writeFloat(max.y);
+		out.writeFloat(max.z);
+		out.writeInt(face_indices.size());
+		for (int face_index : face_indices) {
+			out.writeInt(face_index);
+		}
+		out.writeInt(children.size());
+		for (CollisionTree child : children) {
+			child.write(out);
+		}
+	}
+	
+	protected void read(ByteBuffer in) {
+		min = new Vector3f(in.getFloat(), in.getFloat(), in.getFloat());
+		max = new Vector3f(in.getFloat(), in.getFloat(), in.getFloat());
+		int num_faces = readCount(in, 4);
+		face_indices = new ArrayList<Integer>(num_faces);
+		for (int i = 0; i < num_faces; i++) {
+			face_indices.add(in.getInt());
+		}
+		int num_children = readCount(in, 4*8);
+		children = new ArrayList<CollisionTree>(num_children);
+		for (int i = 0; i < num_children; i++) {
+			CollisionTree child = new CollisionTree();
+			child.face_table = face_table;
+			child.read(in);
+			children.add(child);
+		}
+	}
+	
+	/**
+	 * Returns the number of faces stored at each level of the tree, where the root is level 0.
+	 * @return
+	 */
+	public ArrayList<Integer> getFaceCountsPerLevel() {
+		ArrayList<Integer> face_counts = new ArrayList<Integer>();
+		addFaceCounts(0, face_counts);
+		return face_counts;
+	}
+	
+	private void addFaceCounts(int level, ArrayList<Integer> face_counts) {
+		if (face_counts.size() == level) {
+			face_counts.add(0);
+		}
+		face_counts.set(level, face_counts.get(level) + face_indices.size());
+		for (CollisionTree child : children) {
+			child.addFaceCounts(level + 1, face_counts);
+		}
+	}
+	
+	/**
+	 * Divide up the bounding box of the node into 8 cubes and compute the children of the node. 
+	 * Any faces that don't fit into a child get assigned to the node.
+	 * @param face_starts Holds the starting indices in the face list of the faces inside the node,
+	 * from 'first' up to 'end'.
+	 * @param first
+	 * @param end
+	 */
+	private void computeChildren(int[] face_starts, int first, int end) {
 		
 //    	If there is only a single face inside the current bounding box then don't add
 //    	any children and just set that face for the node.
-		if (faces.size()/3 == 1) {
-			face_indices.add(faces.get(0));
+		if (end - first == 1) {
+			face_indices.add(face_starts[first]);
 			return;
 		}
 		
-//    	The width of the 8 bounding boxes inside the current one in 3 dimensions.
+//    	The width of the 8 bounding boxes inside the current one in 3 dimensions, and the
+//    	planes between them.
 		float x_increment = (max.x - min.x)/num_divisions;
 		float y_increment = (max.y - min.y)/num_divisions;
 		float z_increment = (max.z - min.z)/num_divisions;
+		float mid_x = min.x + x_increment, mid_y = min.y + y_increment, mid_z = min.z + z_increment;
+		float end_x = min.x + x_increment*2, end_y = min.y + y_increment*2, end_z = min.z + z_increment*2;
 		
-//    	Used to map the faces to the sub-bounding box they were found in.
-		HashMap<Integer, BoundingBox> valid_boxes = new HashMap<Integer, BoundingBox>();
+//    	The octants each face lies inside, as a bit for each octant. A face lying on a plane
+//    	between octants is inside all of them.
+		int[] octants = new int[end - first];
+		int[] child_counts = new int[8];
+		float[] face_data = face_table.getData();
 		
-//    	Loop through all the faces and see which lie in the sub bounding boxes.
-		for(int i = 0; i < faces.size(); i += 3) {
-			
-			int v0_index = faces.get(i);
-			int v1_index = faces.get(i+1);
-			int v2_index = faces.get(i+2);
+		for (int i = first; i < end; i++) {
 			
-			Point3f v0 = verts.get(v0_index).getPosition();
-			Point3f v1 = verts.get(v1_index).getPosition();
-			Point3f v2 = verts.get(v2_index).getPosition();
+//			A face lies inside a box when its own bounding box does. Find the halves of
+//			the node it lies inside along each axis, bit 0 for the lower and bit 1 for
+//			the upper half.
+			int f = (face_starts[i]/3)*FaceTable.STRIDE;
+			int halves_x = getHalves(face_data[f + FaceTable.MIN], face_data[f + FaceTable.MAX], min.x, mid_x, end_x);
+			int halves_y = getHalves(face_data[f + FaceTable.MIN + 1], face_data[f + FaceTable.MAX + 1], min.y, mid_y, end_y);
+			int halves_z = getHalves(face_data[f + FaceTable.MIN + 2], face_data[f + FaceTable.MAX + 2], min.z, mid_z, end_z);
 			
-//			Used to determine if the face doesn't fit into any sub boxes.
-			boolean face_assigned_to_sub_box = false;
-			
-			for (int j = 0; j < num_divisions; j++) {
-				for (int k = 0; k < num_divisions; k++) {
-					for (int m = 0; m < num_divisions; m++) {
-				 
-//    					Determine the 2 vectors that define the sub bounding box.
-						Vector3f cur_min = new Vector3f(min.x + x_increment*j, min.y + y_increment*k, min.z + z_increment*m);
-						Vector3f cur_max = new Vector3f(min.x + x_increment*(j+1), min.y + y_increment*(k+1), min.z + z_increment*(m+1));
-						
-//    					Determine if the face lies inside the sub bounding box.
-						if (isInsideBoundingBox(v0, cur_min, cur_max) &&
-							isInsideBoundingBox(v1, cur_min, cur_max) &&
-							isInsideBoundingBox(v2, cur_min, cur_max)) {
-								
-								face_assigned_to_sub_box = true;
-//    							Compute the key for the sub bounding box.
-								int key = (int) (m*Math.pow(num_divisions, 2) + k*num_divisions + j);
-								
-//    							Initialize the key entry in the HashMap if it does not exist.
-								if (!valid_boxes.containsKey(key)) {
-									BoundingBox new_valid_box = new BoundingBox();
-									new_valid_box.faces = new ArrayList<Integer>();
-									new_valid_box.min = new Vector3f(cur_min);
-									new_valid_box.max = new Vector3f(cur_max);
-									valid_boxes.put(key, new_valid_box);
-								}
-								
-//    							Add the face as a valid face for the sub bounding box.
-								ArrayList<Integer> box_faces = valid_boxes.get(key).faces;
-								box_faces.add(v0_index);
-								box_faces.add(v1_index);
-								box_faces.add(v2_index);
-						}
+			int mask = 0;
+			if (halves_x != 0 && halves_y != 0 && halves_z != 0) {
+				for (int key = 0; key < 8; key++) {
+					if ((halves_x >> (key % 2) & 1) != 0 && (halves_y >> ((key/2) % 2) & 1) != 0 && (halves_z >> (key/4) & 1) != 0) {
+						mask |= 1 << key;
+						child_counts[key]++;
 					}
 				}
 			}
+			octants[i - first] = mask;
 			
 //			If the face did not fit into any sub boxes, add it to the list for the
 //			current node.
-			if (!face_assigned_to_sub_box) {
-				face_indices.add(i);
+			if (mask == 0) {
+				face_indices.add(face_starts[i]);
 			}
 		}
 		
+//		Group the faces of the children by octant.
+		int[] child_firsts = new int[9];
+		for (int key = 0; key < 8; key++) {
+			child_firsts[key + 1] = child_firsts[key] + child_counts[key];
+		}
+		final int[] child_faces = new int[child_firsts[8]];
+		int[] child_fill = new int[8];
+		for (int i = first; i < end; i++) {
+			for (int mask = octants[i - first]; mask != 0; mask &= mask - 1) {
+				int key = Integer.numberOfTrailingZeros(mask);
+				child_faces[child_firsts[key] + child_fill[key]++] = face_starts[i];
+			}
+		}
 
-//		Recursively create the children for the current node.
-//		children = new ArrayList<CollisionTree>();
-		Set<Integer> valid_children = valid_boxes.keySet();
-		for (int key : valid_children) {
-			BoundingBox box = valid_boxes.get(key);
-			CollisionTree child = new CollisionTree();
-			child.min = new Vector3f(box.min);
-			child.max = new Vector3f(box.max);
+//		Recursively create the children for the current node, as separate tasks if the node 
+//		is big. The children share the face table of the root.
+		boolean fork = PARALLEL_BUILD && end - first >= PARALLEL_MIN_FACES;
+		ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (int key = 0; key < 8; key++) {
+			if (child_counts[key] == 0) {
+				continue;
+			}
+			int j = key % 2, k = (key/2) % 2, m = key/4;
+			final int child_first = child_firsts[key];
+			final int child_end = child_firsts[key + 1];
 			
-			child.computeChildren(verts, box.faces);
+			final CollisionTree child = new CollisionTree();
+			child.min = new Vector3f(min.x + x_increment*j, min.y + y_increment*k, min.z + z_increment*m);
+			child.max = new Vector3f(min.x + x_increment*(j+1), min.y + y_increment*(k+1), min.z + z_increment*(m+1));
+			child.face_table = face_table;
 			children.add(child);
-		}	
+			
+			RecursiveAction task = new RecursiveAction() {
+				protected void compute() {
+					child.computeChildren(child_faces, child_first, child_end);
+				}
+			};
+			if (fork) {
+				tasks.add(task);
+			}
+			else {
+				task.invoke();
+			}
+		}
+		ForkJoinTask.invokeAll(tasks);
 	}
 	
 	/**
-	 * Determines if the given vertex is inside the bounding box specified
-	 * by the given vectors.
-	 * @param vert
-	 * @param min
-	 * @param max
-	 * @return
+	 * Returns the halves of a box that the given range lies inside along one axis, bit 0
+	 * for the half from 'min' to 'mid' and bit 1 for the half from 'mid' to 'max'.
 	 */
-	private boolean isInsideBoundingBox(Point3f vert, Vector3f min, Vector3f max) {
-		if (vert.x >= min.x && vert.x <= max.x &&
-			vert.y >= min.y && vert.y <= max.y &&
-			vert.z >= min.z && vert.z <= max.z) {
-			
-			return true;
+	private static int getHalves(float range_min, float range_max, float min, float mid, float max) {
+		int halves = 0;
+		if (range_min >= min && range_max <= mid) {
+			halves |= 1;
 		}
-		else {
-			return false;
+		if (range_min >= mid && range_max <= max) {
+			halves |= 2;
 		}
+		return halves;
 	}
 	
 	/**
-	 * Detects if there was a collision between the ray defined by the given points and a face in the collision tree.
-	 * @param start
-	 * @param end
-	 * @param collision_plane
-	 * @return An ArrayList containing the starting indices of all colliding faces.
+	 * Detects if there was a collision between the ray defined by the given points and a face in the 
+	 * collision tree. This gives the same result as the version that returns an ArrayList, but writes
+	 * the starting indices of the colliding faces into the given array so it does not allocate anything.
+	 * @param cushion_amount
+	 * @param collision_face_indices Filled with the starting indices of all colliding faces. Any
+	 * collisions that don't fit in the array are dropped.
+	 * @param num_collisions The number of entries already used in 'collision_face_indices'.
+	 * @return The number of entries used in 'collision_face_indices'.
 	 */
-	public ArrayList<Integer> detectCollision(ArrayList<Vertex> verts, ArrayList<Integer> faces, Point3f start, Point3f end, float cushion_amount) {
+	public int detectCollision(float start_x, float start_y, float start_z, 
+								float end_x, float end_y, float end_z, 
+								float cushion_amount, int[] collision_face_indices, int num_collisions) {
 		
 //		Compute the direction of the start to the end.
-		Vector3f direction = new Vector3f(end);
-		direction.sub(start);
-		direction.normalize();
-		
-//		Compute tmin and tmax.
-		float tmin = 0;
-		float tmax_x = Math.abs(end.x - start.x);
-		float tmax_y = Math.abs(end.y - start.y);
-		float tmax_z = Math.abs(end.z - start.z);
+		float dir_x = end_x - start_x;
+		float dir_y = end_y - start_y;
+		float dir_z = end_z - start_z;
+		float norm = (float) (1.0/Math.sqrt(dir_x*dir_x + dir_y*dir_y + dir_z*dir_z));
+		dir_x *= norm;
+		dir_y *= norm;
+		dir_z *= norm;
 		
-		float tmax = tmax_x > tmax_y ? tmax_x : tmax_y;
-		tmax = tmax_z > tmax ? tmax_z : tmax;
+//		Compute tmax.
+		float tmax = Math.max(Math.abs(end_x - start_x), Math.max(Math.abs(end_y - start_y), Math.abs(end_z - start_z)));
 		
-		ArrayList<Integer> collision_face_indices = new ArrayList<Integer>();
+//		The faces are tested with a ray from the end point along the direction up to tmax + .01, 
+//		so the segment used to pick the children runs from the start point to the end of that ray.
+		float seg_x = end_x - start_x, seg_y = end_y - start_y, seg_z = end_z - start_z;
+		if (tmax > 0) {
+			seg_x += dir_x*(tmax + .01f);
+			seg_y += dir_y*(tmax + .01f);
+			seg_z += dir_z*(tmax + .01f);
+		}
 		
-//		System.out.println("face_indices.size() = " + face_indices.size());
+		float padding = pad_by_cushion ? cushion_amount + QUERY_EPSILON : QUERY_EPSILON;
+		return detectCollision(start_x, start_y, start_z, seg_x, seg_y, seg_z, padding, 
+								end_x, end_y, end_z, dir_x, dir_y, dir_z, tmax, 
+								cushion_amount, collision_face_indices, num_collisions);
+	}
+	
+	private int detectCollision(float start_x, float start_y, float start_z, 
+								float seg_x, float seg_y, float seg_z, float padding, 
+								float end_x, float end_y, float end_z, 
+								float dir_x, float dir_y, float dir_z, float tmax, 
+								float cushion_amount, int[] collision_face_indices, int num_collisions) {
 		
 //		Check for a collision against the faces in the node.
-		for (int face_index : face_indices) {
-			
-			Point3f p0 = verts.get(faces.get(face_index)).getPosition();
-			Point3f p1 = verts.get(faces.get(face_index + 1)).getPosition();
-			Point3f p2 = verts.get(faces.get(face_index + 2)).getPosition();
-			
-//			Move the origin slightly closer to the plane.
-			Plane temp_collision_plane = new Plane(p0, p1, p2);
-			Vector3f vector_to_move_closer_to_plane = new Vector3f(temp_collision_plane.getNormal());
-			vector_to_move_closer_to_plane.negate();
-			vector_to_move_closer_to_plane.scale(cushion_amount);
-			
-			Vector3f origin = new Vector3f(end);
-			origin.add(vector_to_move_closer_to_plane);
-			
-			float dist_to_collision_plane = temp_collision_plane.getDistanceToPlane(end);
-			
-			boolean prev_pos_hit = hit(new Vector3f(start), temp_collision_plane.getNormal(), p0, p1, p2, -9999f, 9999f);
-			boolean cur_pos_hit =  hit(new Vector3f(end), temp_collision_plane.getNormal(), p0, p1, p2, -9999f, 9999f);
-			
-//			Check for a collision. If there is a collision, set the 'collision_plane' and 'collision_face_index' variables.
-			/*
-			if (hit(origin, direction, p0, p1, p2, tmin, tmax)) {
-					collision_plane.setPlane(p0, p1, p2);
-					collision_face_index = face_index;
-					
-					return collision_face_index;
+		for (int i = 0; i < face_indices.size() && num_collisions < collision_face_indices.length; i++) {
+			int face_index = face_indices.get(i);
+			if (face_table.detectCollision(face_index, end_x, end_y, end_z, dir_x, dir_y, dir_z, tmax, cushion_amount)) {
+				collision_face_indices[num_collisions++] = face_index;
 			}
-			*/
-			
-			if (hit(origin, direction, p0, p1, p2, tmin, tmax) ||
-				(cur_pos_hit && dist_to_collision_plane < cushion_amount && dist_to_collision_plane > 0)) {
-				collision_face_indices.add(face_index);
+		}
+		
+//		Recursively detect a collision in the children whose bounding boxes, grown by the padding,
+//		are crossed by the segment. Checking only the starting and ending points would skip the 
+//		children a fast vertex passes all the way through.
+		for (int i = 0; i < children.size(); i++) {
+			CollisionTree child = children.get(i);
+			if (segmentIntersectsBox(start_x, start_y, start_z, seg_x, seg_y, seg_z, child.min, child.max, padding)) {
+				num_collisions = child.detectCollision(start_x, start_y, start_z, seg_x, seg_y, seg_z, padding, 
+														end_x, end_y, end_z, dir_x, dir_y, dir_z, tmax, 
+														cushion_amount, collision_face_indices, num_collisions);
 			}
-			
 		}
-
 		
-//		Check to see if the points lie inside the bounding boxes of one of the children, and recursively 
-//		detect a collision in the child.
-		for (CollisionTree child : children) {
-			
-			Vector3f min = child.min;
-			Vector3f max = child.max;
-			
-	//		Check to see if the starting or the ending points are inside the bounding Box for the child.
-			if (isInsideBoundingBox(start, min, max) ||
-				isInsideBoundingBox(end, min, max)) {
-				ArrayList<Integer> cur_collision_face_indices = child.detectCollision(verts, faces, start, end, cushion_amount);
+		return num_collisions;
+	}
+	
+	/**
+	 * Runs the queries of one packet of a batch with a single walk of the tree. Only the
+	 * nodes that overlap the box around the whole packet are visited, and at each node only
+	 * the queries whose own box overlaps the node are tested against its faces. Every face
+	 * lies inside the box of each node above it and a query's box holds every face it can
+	 * hit, so a query gets the same faces in the same order as it would from detectCollision.
+	 * Without the padding by the cushion the segment of detectCollision can miss nodes the
+	 * query box reaches, so the queries are then run one at a time.
+	 */
+	public void detectCollisions(CollisionBatch batch, int packet, int worker) {
+		if (!pad_by_cushion) {
+			super.detectCollisions(batch, packet, worker);
+			return;
+		}
+		detectCollisions(batch, packet, batch.getPacketStart(packet), batch.getPacketEnd(packet));
+	}
+	
+	private void detectCollisions(CollisionBatch batch, int packet, int first_slot, int end_slot) {
+		if (!overlapsNode(batch.getPacketBounds(), packet*6)) {
+			return;
+		}
+		
+//		Test the faces of the node against each query of the packet that overlaps it.
+		if (!face_indices.isEmpty()) {
+			int[] order = batch.getOrder();
+			float[] query_data = batch.getQueryData();
+			float[] face_data = face_table.getData();
+			float cushion_amount = batch.getCushionAmount();
+			for (int slot = first_slot; slot < end_slot; slot++) {
+				int q = slot*CollisionBatch.STRIDE;
+				if (!overlapsNode(query_data, q + CollisionBatch.MIN)) {
+					continue;
+				}
 				
-				for (int collision_face_index : cur_collision_face_indices) {
-					collision_face_indices.add(collision_face_index);
+				int query = order[slot];
+				for (int i = 0; i < face_indices.size(); i++) {
+					int face_index = face_indices.get(i);
+					if (!boxesOverlap(face_data, (face_index/3)*FaceTable.STRIDE + FaceTable.MIN, query_data, q + CollisionBatch.MIN)) {
+						continue;
+					}
+					if (face_table.detectCollision(face_index, 
+													query_data[q + CollisionBatch.END], query_data[q + CollisionBatch.END + 1], query_data[q + CollisionBatch.END + 2], 
+													query_data[q + CollisionBatch.DIR], query_data[q + CollisionBatch.DIR + 1], query_data[q + CollisionBatch.DIR + 2], 
+													query_data[q + CollisionBatch.TMAX], cushion_amount)) {
+						batch.addHit(query, face_index);
+					}
 				}
 			}
-			
 		}
 		
-		return collision_face_indices;
+		for (int i = 0; i < children.size(); i++) {
+			children.get(i).detectCollisions(batch, packet, first_slot, end_slot);
+		}
 	}
 	
+	/**
+	 * Returns whether or not the box stored in 'bounds' from the offset, as min x, y, z then
+	 * max x, y, z, overlaps the box of the node.
+	 */
+	private boolean overlapsNode(float[] bounds, int offset) {
+		return min.x <= bounds[offset + 3] && max.x >= bounds[offset] &&
+			   min.y <= bounds[offset + 4] && max.y >= bounds[offset + 1] &&
+			   min.z <= bounds[offset + 5] && max.z >= bounds[offset + 2];
+	}
+	
+	/**
+	 * Returns whether or not the given box overlaps the bounding box of a face in the tree.
+	 * The faces of a node always lie inside its box, so only the nodes whose boxes overlap
+	 * the given box are looked at.
+	 */
+	public boolean overlapsFaces(float min_x, float min_y, float min_z, float max_x, float max_y, float max_z) {
+		if (min.x > max_x || max.x < min_x ||
+			min.y > max_y || max.y < min_y ||
+			min.z > max_z || max.z < min_z) {
+			return false;
+		}
+		for (int i = 0; i < face_indices.size(); i++) {
+			if (face_table.overlapsBox(face_indices.get(i), min_x, min_y, min_z, max_x, max_y, max_z)) {
+				return true;
+			}
+		}
+		for (int i = 0; i < children.size(); i++) {
+			if (children.get(i).overlapsFaces(min_x, min_y, min_z, max_x, max_y, max_z)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the distance from the point to the closest face box in the tree, or the maximum
+	 * if none is closer. A node whose box is already further away than the closest face found
+	 * so far can't hold a closer face, so it is skipped.
+	 */
+	public float getClearance(float x, float y, float z, float max_clearance) {
+		float clearance = max_clearance;
+		if (getBoxDistance(min.x, min.y, min.z, max.x, max.y, max.z, x, y, z) >= clearance) {
+			return clearance;
+		}
+		for (int i = 0; i < face_indices.size(); i++) {
+			clearance = Math.min(clearance, face_table.getBoxDistance(face_indices.get(i), x, y, z));
+		}
+		for (int i = 0; i < children.size(); i++) {
+			clearance = children.get(i).getClearance(x, y, z, clearance);
+		}
+		return clearance;
+	}
+	
+	/**
+	 * Returns whether or not the segment from the start to start + seg passes through the
+	 * given box grown by the padding on every side. This is the slab test: the segment is
+	 * clipped against the pair of planes of the box on each axis in turn, and misses the box
+	 * if nothing is left.
+	 * @return
+	 */
+	private static boolean segmentIntersectsBox(float start_x, float start_y, float start_z, 
+												float seg_x, float seg_y, float seg_z, 
+												Vector3f min, Vector3f max, float padding) {
+		
+//		The part of the segment left, as the smallest and biggest fractions of it.
+		float t_near = 0f;
+		float t_far = 1f;
+		
+		for (int axis = 0; axis < 3; axis++) {
+			float start = axis == 0 ? start_x : axis == 1 ? start_y : start_z;
+			float seg = axis == 0 ? seg_x : axis == 1 ? seg_y : seg_z;
+			float slab_min = (axis == 0 ? min.x : axis == 1 ? min.y : min.z) - padding;
+			float slab_max = (axis == 0 ? max.x : axis == 1 ? max.y : max.z) + padding;
+			
+//			A segment parallel to the slab is either inside it the whole way or not at all.
+			if (seg == 0f) {
+				if (start < slab_min || start > slab_max) {
+					return false;
+				}
+				continue;
+			}
+			
+			float t0 = (slab_min - start)/seg;
+			float t1 = (slab_max - start)/seg;
+			t_near = Math.max(t_near, Math.min(t0, t1));
+			t_far = Math.min(t_far, Math.max(t0, t1));
+			if (t_near > t_far) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
 	
 	/**
 	 * Returns whether or not the given ray intersects the given triangle.
@@ -265,75 +649,65 @@ public class CollisionTree {
 	 * @return
 	 */
 	public static boolean hit(Vector3f origin, Vector3f direction, Point3f p0, Point3f p1, Point3f p2, float tmin, float tmax) {
+		return hit(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z, p0, p1, p2, tmin, tmax);
+	}
+	
+	/**
+	 * Returns whether or not the ray with the given origin and direction intersects 
+	 * the given triangle.
+	 * @return
+	 */
+	public static boolean hit(float o_x, float o_y, float o_z, 
+							float d_x, float d_y, float d_z, 
+							Point3f p0, Point3f p1, Point3f p2, float tmin, float tmax) {
 		
-//		Initialize variables so it is easy to read the code.
-		Vector3f D = direction;
-		Vector3f O = origin;
-		
-//		Setup the vectors in the matrix.
-		Vector3f v1 = D;
-		Vector3f v2 = new Vector3f(p2);
-		v2.sub(p0);
-		Vector3f v3 = new Vector3f(p2);
-		v3.sub(p1);
-		Vector3f b = new Vector3f(p2);
-		b.sub(O);
+//		Setup the vectors in the matrix. The first vector is the direction.
+		float v2_x = p2.x - p0.x, v2_y = p2.y - p0.y, v2_z = p2.z - p0.z;
+		float v3_x = p2.x - p1.x, v3_y = p2.y - p1.y, v3_z = p2.z - p1.z;
+		float b_x = p2.x - o_x, b_y = p2.y - o_y, b_z = p2.z - o_z;
 		
 //		Compute the determinant of the 3x3 matrix on the left.
-		Vector3f temp = new Vector3f();
-		temp.cross(v2,  v3);
-		float denom_det = v1.dot(temp);
+		float c_x = v2_y*v3_z - v2_z*v3_y;
+		float c_y = v3_x*v2_z - v3_z*v2_x;
+		float c_z = v2_x*v3_y - v2_y*v3_x;
+		float denom_det = d_x*c_x + d_y*c_y + d_z*c_z;
 		
 //		Return no intersection if the determinant is zero.
 		if (denom_det == 0f)
 			return false;
 		
 //		Compute the determinant when b replaces v1.
-		float t_det = b.dot(temp);
+		float t_det = b_x*c_x + b_y*c_y + b_z*c_z;
 		
 //		Compute the determinant when b replaces v2.
-		temp = new Vector3f();
-		temp.cross(b, v3);
-		float a_det = v1.dot(temp);
+		c_x = b_y*v3_z - b_z*v3_y;
+		c_y = v3_x*b_z - v3_z*b_x;
+		c_z = b_x*v3_y - b_y*v3_x;
+		float a_det = d_x*c_x + d_y*c_y + d_z*c_z;
 		
-//		Compute the determinant when b replaces v3.		
-		temp = new Vector3f();
-		temp.cross(v2, b);
-		float b_det = v1.dot(temp);
+//		Compute the determinant when b replaces v3.
+		c_x = v2_y*b_z - v2_z*b_y;
+		c_y = b_x*v2_z - b_z*v2_x;
+		c_z = v2_x*b_y - v2_y*b_x;
+		float b_det = d_x*c_x + d_y*c_y + d_z*c_z;
 		
 //		Compute t, alpha and beta.
 		float t = t_det / denom_det;
 		float alpha = a_det / denom_det;
 		float beta = b_det / denom_det;
 		
-		
-		
 //		Check the constraints.
 		if (!(alpha >= 0 && beta >= 0 && alpha + beta <= 1)) {
-//			System.out.println("doesn't hit the triangle");
 			return false;
 		}
-
 		
 //		Return no intersection if t is outside the given range.
 		if (t < tmin || t > tmax + .01f) {
-			Vector3f point_t = new Vector3f();
-			point_t.scaleAdd(t, direction, origin);
-//			System.out.println("point_t.y = " + point_t.y);
-			
-			Vector3f point_tmax = new Vector3f();
-			point_tmax.scaleAdd(t, direction, origin);
-//			System.out.println("point_tmax.y = " + point_tmax.y);
-
 			return false;
 		}
 		
 		return true;
 	}
 	
-	private class BoundingBox {
-		ArrayList<Integer> faces;
-		private Vector3f min, max;
-	}
 } 
 
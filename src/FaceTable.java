@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+
+import javax.vecmath.Point3f;
+
+/**
+ * Stores the plane and triangle data of every face of a static mesh in one flat array,
+ * so collision queries don't have to rebuild a Plane for every face they look at.
+ * The data for the face starting at index i of the face list is stored from (i/3)*STRIDE.
+ */
+public class FaceTable {
+
+	public static final int NORMAL = 0;   // The unit normal of the face.
+	public static final int OFFSET = 3;   // The distance of the plane from the origin along the normal.
+	public static final int P0 = 4;      // The first vertex of the face.
+	public static final int P2 = 7;      // The third vertex of the face.
+	public static final int V2 = 10;     // p2 - p0
+	public static final int V3 = 13;     // p2 - p1
+	public static final int CROSS = 16;  // v2 x v3, used by the ray-triangle test.
+	public static final int MIN = 19;    // The bounding box of the face.
+	public static final int MAX = 22;
+	public static final int STRIDE = 25;
+
+	private int num_faces;
+	private float[] data;
+
+	public FaceTable(ArrayList<Vertex> verts, ArrayList<Integer> faces) {
+		num_faces = faces.size()/3;
+		data = new float[num_faces*STRIDE];
+
+		for (int i = 0; i < num_faces; i++) {
+			Point3f p0 = verts.get(faces.get(i*3)).getPosition();
+			Point3f p1 = verts.get(faces.get(i*3 + 1)).getPosition();
+			Point3f p2 = verts.get(faces.get(i*3 + 2)).getPosition();
+			int f = i*STRIDE;
+
+//			Compute the normal of the face the same way the Plane class does.
+			float e1_x = p1.x - p0.x, e1_y = p1.y - p0.y, e1_z = p1.z - p0.z;
+			float e2_x = p2.x - p0.x, e2_y = p2.y - p0.y, e2_z = p2.z - p0.z;
+			float n_x = e1_y*e2_z - e1_z*e2_y;
+			float n_y = e2_x*e1_z - e2_z*e1_x;
+			float n_z = e1_x*e2_y - e1_y*e2_x;
+			float norm = (float) (1.0/Math.sqrt(n_x*n_x + n_y*n_y + n_z*n_z));
+			data[f + NORMAL] = n_x*norm;
+			data[f + NORMAL + 1] = n_y*norm;
+			data[f + NORMAL + 2] = n_z*norm;
+			data[f + OFFSET] = data[f + NORMAL]*p0.x + data[f + NORMAL + 1]*p0.y + data[f + NORMAL + 2]*p0.z;
+
+			set(f + P0, p0.x, p0.y, p0.z);
+			set(f + P2, p2.x, p2.y, p2.z);
+			set(f + V2, p2.x - p0.x, p2.y - p0.y, p2.z - p0.z);
+			set(f + V3, p2.x - p1.x, p2.y - p1.y, p2.z - p1.z);
+
+			float v2_x = data[f + V2], v2_y = data[f + V2 + 1], v2_z = data[f + V2 + 2];
+			float v3_x = data[f + V3], v3_y = data[f + V3 + 1], v3_z = data[f + V3 + 2];
+			set(f + CROSS, v2_y*v3_z - v2_z*v3_y, v3_x*v2_z - v3_z*v2_x, v2_x*v3_y - v2_y*v3_x);
+
+			set(f + MIN, Math.min(p0.x, Math.min(p1.x, p2.x)), Math.min(p0.y, Math.min(p1.y, p2.y)), Math.min(p0.z, Math.min(p1.z, p2.z)));
+			set(f + MAX, Math.max(p0.x, Math.max(p1.x, p2.x)), Math.max(p0.y, Math.max(p1.y, p2.y)), Math.max(p0.z, Math.max(p1.z, p2.z)));
+		}
+	}
+
+	private void set(int index, float x, float y, float z) {
+		data[index] = x;
+		data[index + 1] = y;
+		data[index + 2] = z;
+	}
+
+	/**
+	 * Returns the signed distance from the given point to the plane of the face,
+	 * measured from the first vertex of the face.
+	 * @param face_index The starting index of the face in the face list.
+	 */
+	public float getDistanceToPlane(int face_index, float x, float y, float z) {
+		int f = (face_index/3)*STRIDE;
+		return (x - data[f + P0])*data[f + NORMAL] + (y - data[f + P0 + 1])*data[f + NORMAL + 1] + (z - data[f + P0 + 2])*data[f + NORMAL + 2];
+	}
+
+	/**
+	 * Returns whether or not the ray with the given origin and direction intersects the face.
+	 * This is the same test as CollisionTree.hit, but with the edges of the face already computed.
+	 * @param face_index The starting index of the face in the face list.
+	 * @return
+	 */
+	public boolean hit(int face_index, float o_x, float o_y, float o_z, float d_x, float d_y, float d_z, float tmin, float tmax) {
+		int f = (face_index/3)*STRIDE;
+		float v2_x = data[f + V2], v2_y = data[f + V2 + 1], v2_z = data[f + V2 + 2];
+		float v3_x = data[f + V3], v3_y = data[f + V3 + 1], v3_z = data[f + V3 + 2];
+		float b_x = data[f + P2] - o_x, b_y = data[f + P2 + 1] - o_y, b_z = data[f + P2 + 2] - o_z;
+		float c_x = data[f + CROSS], c_y = data[f + CROSS + 1], c_z = data[f + CROSS + 2];
+
+//		Compute the determinant of the 3x3 matrix on the left.
+		float denom_det = d_x*c_x + d_y*c_y + d_z*c_z;
+		if (denom_det == 0f)
+			return false;
+
+//		Compute the determinants when b replaces each column.
+		float t_det = b_x*c_x + b_y*c_y + b_z*c_z;
+
+		c_x = b_y*v3_z - b_z*v3_y;
+		c_y = v3_x*b_z - v3_z*b_x;
+		c_z = b_x*v3_y - b_y*v3_x;
+		float a_det = d_x*c_x + d_y*c_y + d_z*c_z;
+
+		c_x = v2_y*b_z - v2_z*b_y;
+		c_y = b_x*v2_z - b_z*v2_x;
+		c_z = v2_x*b_y - v2_y*b_x;
+		float b_det = d_x*c_x + d_y*c_y + d_z*c_z;
+
+//		Compute t, alpha and beta, and check the constraints.
+		float t = t_det / denom_det;
+		float alpha = a_det / denom_det;
+		float beta = b_det / denom_det;
+
+		if (!(alpha >= 0 && beta >= 0 && alpha + beta <= 1)) {
+			return false;
+		}
+		if (t < tmin || t > tmax + .01f) {
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns whether or not a vertex moving from the start to the end point collides with
+	 * the face. This is the test used by all the collision queries: either the ray from the end
+	 * point (moved towards the plane by the cushion) along the direction of motion hits the face,
+	 * or the end point lies over the face and within the cushion of its plane.
+	 * @param face_index The starting index of the face in the face list.
+	 * @param dir_x The normalized direction from the start to the end point.
+	 * @param tmax The largest absolute coordinate difference between the start and the end point.
+	 * @param cushion_amount
+	 * @return
+	 */
+	public boolean detectCollision(int face_index, float end_x, float end_y, float end_z,
+								float dir_x, float dir_y, float dir_z, float tmax, float cushion_amount) {
+		int f = (face_index/3)*STRIDE;
+		float n_x = data[f + NORMAL], n_y = data[f + NORMAL + 1], n_z = data[f + NORMAL + 2];
+		float dist_to_collision_plane = getDistanceToPlane(face_index, end_x, end_y, end_z);
+
+		return hit(face_index, end_x - n_x*cushion_amount, end_y - n_y*cushion_amount, end_z - n_z*cushion_amount,
+					dir_x, dir_y, dir_z, 0f, tmax) ||
+			   (dist_to_collision_plane < cushion_amount && dist_to_collision_plane > 0 &&
+				hit(face_index, end_x, end_y, end_z, n_x, n_y, n_z, -9999f, 9999f));
+	}
+
+	/**
+	 * Returns whether or not the bounding box of the face overlaps the given box.
+	 * @param face_index The starting index of the face in the face list.
+	 */
+	public boolean overlapsBox(int face_index, float min_x, float min_y, float min_z, float max_x, float max_y, float max_z) {
+		int f = (face_index/3)*STRIDE;
+		return data[f + MIN] <= max_x && data[f + MAX] >= min_x &&
+			   data[f + MIN + 1] <= max_y && data[f + MAX + 1] >= min_y &&
+			   data[f + MIN + 2] <= max_z && data[f + MAX + 2] >= min_z;
+	}
+
+	/**
+	 * Returns the distance from the point to the bounding box of the face along the axis where
+	 * it is largest, or 0 if the point is inside the box.
+	 * @param face_index The starting index of the face in the face list.
+	 */
+	public float getBoxDistance(int face_index, float x, float y, float z) {
+		int f = (face_index/3)*STRIDE;
+		return CollisionStructure.getBoxDistance(data[f + MIN], data[f + MIN + 1], data[f + MIN + 2],
+												data[f + MAX], data[f + MAX + 1], data[f + MAX + 2], x, y, z);
+	}
+
+	/**
+	 * Returns a 64 bit FNV-1a hash of the face data, used to tell if a file saved for
+	 * a mesh still matches it.
+	 */
+	public long getContentHash() {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < data.length; i++) {
+			hash = (hash ^ Float.floatToIntBits(data[i]))*0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Getters
+	 */
+	public int getNumFaces() {
+		return num_faces;
+	}
+	public float[] getData() {
+		return data;
+	}
+	public float getNormalX(int face_index) {
+		return data[(face_index/3)*STRIDE + NORMAL];
+	}
+	public float getNormalY(int face_index) {
+		return data[(face_index/3)*STRIDE + NORMAL + 1];
+	}
+	public float getNormalZ(int face_index) {
+		return data[(face_index/3)*STRIDE + NORMAL + 2];
+	}
+}
@@ -31,6 +31,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 class JelloSkeeBall extends JFrame implements GLEventListener, KeyListener, MouseListener, MouseMotionListener, ActionListener {
 
@@ -47,14 +49,15 @@ class JelloSkeeBall extends JFrame implements GLEventListener, KeyListener, Mous
 	 */
 	
 //	The game state.
-	private static GameState game_state;
+	private static volatile GameState game_state; // Set last by the mouse listener, so display sees the round it set up.
 	
 //	The data structures that hold the jello objects and collision environment.
 	private static ArrayList<Object> jello_objects = new ArrayList<Object>();
 	private static Object cur_jello_object;
 	private static Object collision_environment;
 	private static Object goal_plane; // Placed behind the goals and is used to determine which goal was scored in.
-	private static HashMap<Integer, Edge> edge_adjacency; // Stores the springs in each edge of the jello.
+	private static SoftBodyState cur_jello_state; // The flat physics state of the current jello object.
+	private static ArrayList<PhysicsWorkspace> jello_workspaces = new ArrayList<PhysicsWorkspace>(); // The scratch buffers used to step each jello object.
 	
 //	Used to scale jello objects to a similar size.
 	private static Vector3f jello_object_max_dimensions = new Vector3f(.2f, .2f, .2f);
@@ -63,8 +66,16 @@ class JelloSkeeBall extends JFrame implements GLEventListener, KeyListener, Mous
 	private static Point3f startPoint = new Point3f(0f, 1f, -4f);
 	
 //	The acceleration structure for collisions with the collision environment.
-	private static CollisionTree collision_tree;
-	private static CollisionTree goal_plane_collision_tree;
+	private static CollisionStructure collision_tree;
+	private static CollisionStructure goal_plane_collision_tree;
+	
+//	The assets while they load, see waitForAssets.
+	private static ArrayList<CompletableFuture<Object>> jello_object_futures = new ArrayList<CompletableFuture<Object>>();
+	private static CompletableFuture<Object> collision_environment_future;
+	private static CompletableFuture<CollisionStructure> collision_tree_future;
+	private static CompletableFuture<Object> goal_plane_future;
+	private static CompletableFuture<CollisionStructure> goal_plane_collision_tree_future;
+	private static boolean assets_loaded = false;
 	
 	private static ArrayList<Point3f> goal_point_locations = new ArrayList<Point3f>(); // Used to determine which goal the jello went into.
 	private static ArrayList<Integer> goal_points = new ArrayList<Integer>(); // Used to determine the amount of points awarded per goal.
@@ -116,74 +127,19 @@ class JelloSkeeBall extends JFrame implements GLEventListener, KeyListener, Mous
 	private static Vector3f gravity = new Vector3f(0, -1f, 0);
 	private static int num_physics_iterations_per_frame = 5;
 	private static float physics_time_interval = .001f;
-	private static int support_spring_modulus = 1; // Every nth vertice will have a support spring.
-	                                               // A value of one indicates there will be a spring
-//	                                                  between every vertice. Performance and stability will go down
-//	                                                  if there are too many springs.
+	private static int support_spring_modulus = SpringNetwork.SUPPORT_SPRING_MODULUS; // Every nth vertice will have a support spring.
+	                                                                                  // A value of one indicates there will be a spring
+//	                                                                                     between every vertice. Performance and stability will go down
+//	                                                                                     if there are too many springs.
+	private static int support_spring_neighbours = SpringNetwork.SUPPORT_SPRING_NEIGHBOURS; // When this or the radius is positive, each vertex only gets support 
+	private static float support_spring_radius = SpringNetwork.SUPPORT_SPRING_RADIUS;       // springs to its nearest neighbours instead of to every nth vertice.
+	                                                                                        // A radius of zero doesn't limit the length of the springs, and zero
+	                                                                                        // neighbours links every vertice within the radius.
 	private static float cushion_amount = .2f;
+	private static int num_physics_threads = ParallelSpringForces.NUM_THREADS; // The number of threads used to add the spring forces.
+	                                                                           // Only worth raising for jellos with a lot of springs.
 	
 	
-	/* load a simple .obj mesh from disk file
-	 * note that each face *must* be a triangle and cannot be a quad or other types of polygon
-	 * 'input_verts' and 'input_faces' store the vertex and face data of the input mesh respectively
-	 * each element in 'input_verts' is a 3D points defining the vertex
-	 * every three integers in 'input_faces' define the indexes of the three vertices that make a triangle
-	 * there are in total input_faces.size()/3 triangles
-	 */ 
-	private static void loadMesh(String filename, ArrayList<Point3f> input_verts, ArrayList<Integer> input_faces) {
-		BufferedReader in = null;
-		try {
-			in = new BufferedReader(new FileReader(filename));
-		} catch (IOException e) {
-			System.out.println("Error reading from file " + filename);
-			System.exit(0);
-		}
-
-		float x, y, z;
-		int v1, v2, v3;
-		String line;
-		String[] tokens;
-		try {
-		while ((line = in.readLine()) != null) {
-			if (line.length() == 0)
-				continue;
-			switch(line.charAt(0)) {
-			case 'v':
-				System.out.println(line);
-				tokens = line.split("[ ]+");
-				x = Float.valueOf(tokens[1]);
-				y = Float.valueOf(tokens[2]);
-				z = Float.valueOf(tokens[3]);
-				input_verts.add(new Point3f(x, y, z));
-				break;
-			case 'f':
-				tokens = line.split("[ ]+");
-				/* when defining faces, .obj assumes the vertex index starts from 1
-				 * so we should subtract 1 from each index 
-				 */
-				v1 = Integer.valueOf(tokens[1])-1;
-				v2 = Integer.valueOf(tokens[2])-1;
-				v3 = Integer.valueOf(tokens[3])-1;
-				input_faces.add(v1);
-				input_faces.add(v2);
-				input_faces.add(v3);				
-				break;
-			default:
-				continue;
-			}
-		}
-		in.close();	
-		} catch(IOException e) {
-			// error reading file
-		}
-
-		System.out.println("Read " + input_verts.size() +
-					   	" vertices and " + input_faces.size()/3 + " faces.");
-
-	}
-	
-
-	
 	/* creates OpenGL window */
 	public JelloSkeeBall() {
 		super("3D Jello Skee Ball");
@@ -207,70 +163,21 @@ class JelloSkeeBall extends JFrame implements GLEventListener, KeyListener, Mous
 	}
 	
 	/* 
-	 * initializes the springs for the mesh.
+	 * initializes the springs for the mesh. This only needs to be done once for each
+	 * loaded jello object, since the spawned copies share the springs. Objects loaded
+	 * from a binary mesh with springs already have them.
 	 */
-	public static void initSprings() {
-		
-//		Compute the 2 vertices that define each edge, and store the other 2 vertices that are 
-//		part of the edge's adjacent faces.
-		edge_adjacency = new HashMap<Integer, Edge>();
-		ArrayList<Vertex> object_verts = cur_jello_object.getVerts();
-		ArrayList<Integer> object_faces = cur_jello_object.getFaces();
-		
-		for (int i = 0; i < object_faces.size(); i += 3) {
-			
-			int v0 = object_faces.get(i);
-			int v1 = object_faces.get(i+1);
-			int v2 = object_faces.get(i+2);		
-			
-			Vertex v0_vert = object_verts.get(v0);
-			Vertex v1_vert = object_verts.get(v1);
-			Vertex v2_vert = object_verts.get(v2);
-			
-//			For each edge, see if an entry for it already exists in the HashMap. If not, create a new 
-//			entry and add the two defining vertices, as well as the distance between the vertices
-//			and the spring constant.
-			int key01 = (v0 < v1) ? v0*object_verts.size() + v1 : v1*object_verts.size() + v0;
-			int key02 = (v0 < v2) ? v0*object_verts.size() + v2 : v2*object_verts.size() + v0;
-			int key12 = (v1 < v2) ? v1*object_verts.size() + v2 : v2*object_verts.size() + v1;
-			
-			if(!edge_adjacency.containsKey(key01)) {	
-				Edge edge = new Edge(v0, v1);
-				edge.setEquilibriumLength(v0_vert.getPosition().distance(v1_vert.getPosition()));
-				edge.setSpringConstant(object_spring_constant);
-				edge_adjacency.put(key01, edge);
-			}
-			if(!edge_adjacency.containsKey(key02)) {
-				Edge edge = new Edge(v0, v2);
-				edge.setEquilibriumLength(v0_vert.getPosition().distance(v2_vert.getPosition()));
-				edge.setSpringConstant(object_spring_constant);
-				edge_adjacency.put(key02, edge);
-			}
-			if(!edge_adjacency.containsKey(key12)) {	
-				Edge edge = new Edge(v1, v2);
-				edge.setEquilibriumLength(v1_vert.getPosition().distance(v2_vert.getPosition()));
-				edge.setSpringConstant(object_spring_constant);
-				edge_adjacency.put(key12, edge);
-			}
-		}
-		
-//		Add some support springs inside the object.
-		for (int i = 0; i < object_verts.size(); i++) {
-			int v0 = i;
-			Vertex v0_vert = object_verts.get(v0);
-			for (int j = 0; j < object_verts.size(); j++) {
-				int v1 = j;
-				Vertex v1_vert = object_verts.get(v1);
-				int key = (v0 < v1) ? v0*object_verts.size() + v1 : v1*object_verts.size() + v0;
-				
-				if (j % support_spring_modulus == 0 && i != j && !edge_adjacency.containsKey(key)) {
-					Edge edge = new Edge(v0, v1);
-					edge.setEquilibriumLength(v0_vert.getPosition().distance(v1_vert.getPosition()));
-					edge.setSpringConstant(object_spring_constant);
-					edge_adjacency.put(key, edge);
-				}
-			}
+	public static void initSprings(Object jello_object) {
+		if (jello_object.getSpringNetwork() != null) {
+			return;
 		}
+		SpringNetwork spring_network = SpringNetwork.createJelloSprings(jello_object.getVerts(), 
+																		jello_object.getFaces(), 
+																		object_spring_constant, 
+																		support_spring_modulus, 
+																		support_spring_neighbours, 
+																		support_spring_radius);
+		jello_object.setSpringNetwork(spring_network);
 	}
 	
 	public static void printUsage() {
@@ -292,115 +199,34 @@ class JelloSkeeBall extends JFrame implements GLEventListener, KeyListener, Mous
 		String collisionEnvironmentFilename = "skeeball_map.obj";
 		String goalPlaneFilename = "skeeball_goal_plane.obj";
 		
-//		Initialize the holders to load meshes into.
-		ArrayList<Point3f> input_verts = new ArrayList<Point3f>();
-		ArrayList<Integer> input_faces = new ArrayList<Integer>();
-		ArrayList<Vertex> object_verts = new ArrayList<Vertex>();
-		ArrayList<Vector3f> object_normals = new ArrayList<Vector3f>();
+//		Start loading all the assets at once. They load while the window opens, and the
+//		game waits for them when the first round starts.
+		AssetPipeline pipeline = new AssetPipeline();
 		
 //		Load and initialize the jello objects.
 		for (String input_filename : jelloObjectFilenamesArray) {	
-
-			input_verts = new ArrayList<Point3f>();
-			input_faces = new ArrayList<Integer>();
-			object_verts = new ArrayList<Vertex>();
-			object_normals = new ArrayList<Vector3f>();
-			
-			loadMesh(input_filename, input_verts, input_faces);
-			for (int i = 0; i < input_verts.size(); i++) {
-				Point3f cur_position = new Point3f(input_verts.get(i));
-				Vector3f cur_velocity = new Vector3f(0, 0, 0);
-				Vertex cur_vert = new Vertex(cur_position, vertex_mass, cur_velocity);
-				object_verts.add(cur_vert);
-			}
-
-//			Scale down the object to fit in a certain bounding box.
-			Vector3f boundingBox = computeBoundingBox(object_verts);
-			Vector3f scaleFactors = new Vector3f(jello_object_max_dimensions.x/boundingBox.x, jello_object_max_dimensions.y/boundingBox.y, jello_object_max_dimensions.z/boundingBox.z);
-			float scaleFactor = scaleFactors.x > scaleFactors.y ? scaleFactors.x : scaleFactors.y;
-			scaleFactor = scaleFactors.z > scaleFactor ? scaleFactors.z : scaleFactor;
-			for (Vertex v : object_verts) {
-				v.getPosition().scale(scaleFactor);
-			}
-			
-//			Move the object to the starting point.
-			Point3f pointOnObject = object_verts.get(0).getPosition();
-			Point3f vectorToStartPoint = new Point3f(startPoint);
-			vectorToStartPoint.sub(pointOnObject);
-			for (Vertex v : object_verts) {
-				v.getPosition().add(vectorToStartPoint);
-			}
-			
-			estimateFaceNormal(object_verts, input_faces, object_normals);
-			jello_objects.add(new Object(object_verts, input_faces, object_normals));
-			
+			jello_object_futures.add(pipeline.loadJelloObject(input_filename, vertex_mass, jello_object_max_dimensions, startPoint)
+					.thenApply(new Function<Object, Object>() {
+						public Object apply(Object jello_object) {
+							initSprings(jello_object);
+							return jello_object;
+						}
+					}));
 		}
 
 
-//		Load and initialize the collision surface.
-		input_verts = new ArrayList<Point3f>();
-		input_faces = new ArrayList<Integer>();
-		object_verts = new ArrayList<Vertex>();
-		object_normals = new ArrayList<Vector3f>();
-		
-		loadMesh(collisionEnvironmentFilename, input_verts, input_faces);
-		for (int i = 0; i < input_verts.size(); i++) {
-			Point3f cur_position = new Point3f(input_verts.get(i));
-			Vector3f cur_velocity = new Vector3f(0, 0, 0);
-			Vertex cur_vert = new Vertex(cur_position, vertex_mass, cur_velocity);
-			object_verts.add(cur_vert);
-		}
-		estimateFaceNormal(object_verts, input_faces, object_normals);
-		collision_environment = new Object(object_verts, input_faces, object_normals);
-		
-//		Build the acceleration structure for the collision surface.
-		collision_tree = new CollisionTree(object_verts, input_faces);
-		
-		
-//		Load and initialize the goal plane surface.
-		input_verts = new ArrayList<Point3f>();
-		input_faces = new ArrayList<Integer>();
-		object_verts = new ArrayList<Vertex>();
-		object_normals = new ArrayList<Vector3f>();
-		
-		loadMesh(goalPlaneFilename, input_verts, input_faces);
-		for (int i = 0; i < input_verts.size(); i++) {
-			Point3f cur_position = new Point3f(input_verts.get(i));
-			Vector3f cur_velocity = new Vector3f(0, 0, 0);
-			Vertex cur_vert = new Vertex(cur_position, vertex_mass, cur_velocity);
-			object_verts.add(cur_vert);
-		}
-		estimateFaceNormal(object_verts, input_faces, object_normals);
-		goal_plane = new Object(object_verts, input_faces, object_normals);
+//		Load and initialize the collision surface, and build or load its acceleration structure.
+		collision_environment_future = pipeline.loadObject(collisionEnvironmentFilename, vertex_mass);
+		collision_tree_future = pipeline.loadCollisionStructure(collisionEnvironmentFilename, collision_environment_future, DistanceField.ENABLED);
 		
-//		Build the acceleration structure for the goal plane collision surface.
-		goal_plane_collision_tree = new CollisionTree(object_verts, input_faces);
 		
+//		Load and initialize the goal plane surface, and build or load its acceleration structure.
+		goal_plane_future = pipeline.loadObject(goalPlaneFilename, vertex_mass);
+		goal_plane_collision_tree_future = pipeline.loadCollisionStructure(goalPlaneFilename, goal_plane_future, false);
 		
-//		Initialize the goal plane locations.
-		Point3f top_left = new Point3f(1f, 1.5f, .5f);
-		Point3f top_right = new Point3f(-1f, 1.5f, .5f);
-		Point3f top_middle = new Point3f(0f, 1.5f, .5f);
-		Point3f middle_left = new Point3f(-.3f, 1f, 0f);
-		Point3f middle_right = new Point3f(.3f, 1f, 0f);
-		Point3f bottom_right = new Point3f(-.6f, .3f, -.8f);
-		Point3f bottom_left = new Point3f(.6f, .3f, -.8f);
-		goal_point_locations.add(top_left);
-		goal_point_locations.add(top_right);
-		goal_point_locations.add(top_middle);
-		goal_point_locations.add(middle_left);
-		goal_point_locations.add(middle_right);
-		goal_point_locations.add(bottom_right);
-		goal_point_locations.add(bottom_left);
 		
-//		Initialize the goal points.
-		goal_points.add(100);
-		goal_points.add(100);
-		goal_points.add(200);
-		goal_points.add(50);
-		goal_points.add(50);
-		goal_points.add(25);
-		goal_points.add(25);
+//		Initialize the goal plane locations and the points for each goal.
+		TossSimulator.addDefaultGoals(goal_point_locations, goal_points);
 				
 //		Initialize the jello object multipliers.
 		jello_object_multipliers.add(1); // chamfer box
@@ -487,15 +313,35 @@ class JelloSkeeBall extends JFrame implements GLEventListener, KeyListener, Mous
 		gl.glMatrixMode(GL.GL_MODELVIEW);
 	}
 	
+	/**
+	 * Waits for the assets that main started loading, the first time it is called.
+	 */
+	private static synchronized void waitForAssets() {
+		if (assets_loaded) {
+			return;
+		}
+		for (CompletableFuture<Object> jello_object_future : jello_object_futures) {
+			Object jello_object = jello_object_future.join();
+			jello_objects.add(jello_object);
+			jello_workspaces.add(new PhysicsWorkspace(jello_object.getVerts().size(), num_physics_threads));
+		}
+		collision_environment = collision_environment_future.join();
+		collision_tree = collision_tree_future.join();
+		goal_plane = goal_plane_future.join();
+		goal_plane_collision_tree = goal_plane_collision_tree_future.join();
+		assets_loaded = true;
+	}
+	
 	/**
 	 * Load a random jello object.
 	 */
 	public void spawnRandomJelloObject() {
+		waitForAssets();
 		Random r = new Random();
 		double rand = r.nextDouble();
 		cur_jello_object_index = (int) (rand*jello_objects.size());
 		cur_jello_object = new Object(jello_objects.get(cur_jello_object_index));
-		initSprings();
+		cur_jello_state = new SoftBodyState(cur_jello_object.getVerts());
 	}
 	
 	public void mousePressed(MouseEvent e) {	
@@ -528,13 +374,14 @@ class JelloSkeeBall extends JFrame implements GLEventListener, KeyListener, Mous
 				if (xt > 0 && xt < w &&
 					yt > 0 && yt < h) {
 					
-//					Play was clicked.
-					game_state = GameState.PLAYING_BEFORE_TOSS;
+//					Play was clicked. The first spawn waits for the assets, so the round is set
+//					up before the game state lets display draw it.
 					spawnRandomJelloObject();
 					score = 0;
 					downward_velocity = 0;
 					time_left_in_round_seconds = time_per_round_seconds;
 					last_points_scored = 0;
+					game_state = GameState.PLAYING_BEFORE_TOSS;
 				}
 				
 			}
@@ -673,8 +520,8 @@ class JelloSkeeBall extends JFrame implements GLEventListener, KeyListener, Mous
 				
 //				Check to see if the toss time is up.
 				if (time_left_in_toss_seconds < 0) {
-					game_state = GameState.PLAYING_BEFORE_TOSS;
 					spawnRandomJelloObject();
+					game_state = GameState.PLAYING_BEFORE_TOSS;
 					object_verts = cur_jello_object.getVerts();
 					object_faces = cur_jello_object.getFaces();
 					object_normals = cur_jello_object.getNormals();
@@ -682,54 +529,59 @@ class JelloSkeeBall extends JFrame implements GLEventListener, KeyListener, Mous
 				
 				
 				
+//				Pick up any changes made to the vertices by the mouse, run the physics on
+//				the flat state, and copy the result back to the vertices to draw them.
+				cur_jello_state.load(object_verts);
 				for (int i = 0; i < num_physics_iterations_per_frame; i++) {
-					Physics.computeRungeKutta(object_verts, 
-							edge_adjacency, 
-							object_normals, 
-							collision_verts, 
-							collision_faces, 
+					Physics.computeRungeKutta(cur_jello_state, 
+							jello_workspaces.get(cur_jello_object_index), 
+							cur_jello_object.getSpringNetwork(), 
 							collision_tree, 
 							collision_spring_constant, 
 							cushion_amount, 
 							gravity, 
 							physics_time_interval);	
 				}
+				cur_jello_state.store(object_verts);
 				
-//				Check to see if a goal was scored.
-				for (Vertex v : object_verts) {
+//				Check to see if a goal was scored, if the jello is near the goal plane.
+				if (goal_plane_collision_tree.mayCollide(cur_jello_state.getPrevPositions(), cur_jello_state.getPositions(), 
+														cur_jello_state.getNumVerts(), cushion_amount)) {
+					for (Vertex v : object_verts) {
 					
-					ArrayList<Integer> collision_face_indices = goal_plane_collision_tree.detectCollision(goal_plane_verts, goal_plane_faces, v.getPrevPosition(), v.getPosition(), cushion_amount);
+						ArrayList<Integer> collision_face_indices = goal_plane_collision_tree.detectCollision(v.getPrevPosition(), v.getPosition(), cushion_amount);
 					
-					if (collision_face_indices.size() > 0) {
+						if (collision_face_indices.size() > 0) {
 						
-//						A goal was scored. Find out which goal was scored in
-//						and update the score.
-						Point3f position = v.getPosition();
-						float min_dist = 99999f;
-						int min_index = 0;
+//							A goal was scored. Find out which goal was scored in
+//							and update the score.
+							Point3f position = v.getPosition();
+							float min_dist = 99999f;
+							int min_index = 0;
 						
-						for (int i = 0; i < goal_points.size(); i++) {
-							float cur_dist = position.distance(goal_point_locations.get(i));
-							if (cur_dist < min_dist) {
-								min_dist = cur_dist;
-								min_index = i;
+							for (int i = 0; i < goal_points.size(); i++) {
+								float cur_dist = position.distance(goal_point_locations.get(i));
+								if (cur_dist < min_dist) {
+									min_dist = cur_dist;
+									min_index = i;
+								}
 							}
-						}
 						
-						score += goal_points.get(min_index) * jello_object_multipliers.get(cur_jello_object_index);
+							score += goal_points.get(min_index) * jello_object_multipliers.get(cur_jello_object_index);
 						
-						last_points_scored = goal_points.get(min_index) * jello_object_multipliers.get(cur_jello_object_index);
+							last_points_scored = goal_points.get(min_index) * jello_object_multipliers.get(cur_jello_object_index);
 						
 						
-//						Reset the jello object.
-						spawnRandomJelloObject();
-						game_state = GameState.PLAYING_BEFORE_TOSS;
-						break;
+//							Reset the jello object.
+							spawnRandomJelloObject();
+							game_state = GameState.PLAYING_BEFORE_TOSS;
+							break;
+						}
 					}
 				}
 			}
 			
-			estimateFaceNormal(object_verts, object_faces, object_normals);
+			MeshLoader.estimateFaceNormal(object_verts, object_faces, object_normals);
 			
 
 			int i;
@@ -837,60 +689,6 @@ class JelloSkeeBall extends JFrame implements GLEventListener, KeyListener, Mous
 		zfar  = zpos - centerz + 3.f * ball_r;
 	}	
 	
-	/* estimate face normals */
-	private static void estimateFaceNormal(ArrayList<Vertex> verts, ArrayList<Integer> faces, ArrayList<Vector3f> normals) {
-		int i;
-		normals.clear();
-		for (i = 0; i < faces.size(); i ++) {
-			normals.add(new Vector3f());
-		}
-		
-		Vector3f e1 = new Vector3f();
-		Vector3f e2 = new Vector3f();
-		for (i = 0; i < faces.size()/3; i ++) {
-			// get face
-			int v1 = faces.get(3*i+0);
-			int v2 = faces.get(3*i+1);
-			int v3 = faces.get(3*i+2);
-			
-			Point3f v1_position = verts.get(v1).getPosition();
-			Point3f v2_position = verts.get(v2).getPosition();
-			Point3f v3_position = verts.get(v3).getPosition();
-			
-			// compute normal
-			e1.sub(v2_position, v1_position);
-			e2.sub(v3_position, v1_position);
-			normals.get(i*3+0).cross(e1, e2);
-			normals.get(i*3+0).normalize();
-			normals.get(i*3+1).cross(e1, e2);
-			normals.get(i*3+1).normalize();
-			normals.get(i*3+2).cross(e1, e2);
-			normals.get(i*3+2).normalize();
-		}
-	}
-	
-	/* find the bounding box for the vertices */
-	private static Vector3f computeBoundingBox(ArrayList<Vertex> verts) {
-		float xmin, ymin, zmin, xmax, ymax, zmax;
-		xmax = xmin = verts.get(0).getPosition().x;
-		ymax = ymin = verts.get(0).getPosition().y;
-		zmax = zmin = verts.get(0).getPosition().z;
-
-		for (int i = 1; i < verts.size(); i ++) {
-			Point3f position = verts.get(i).getPosition();
-			xmax = Math.max(xmax, position.x);
-			xmin = Math.min(xmin, position.x);
-			ymax = Math.max(ymax, position.y);
-			ymin = Math.min(ymin, position.y);
-			zmax = Math.max(zmax, position.z);
-			zmin = Math.min(zmin, position.z);			
-		}
-
-		Vector3f box = new Vector3f(xmax - xmin, ymax - ymin, zmax - zmin);
-		
-		return box;
-	}
-	
 	// these event functions are not used for this assignment
 	public void displayChanged(GLAutoDrawable drawable, boolean modeChanged, boolean deviceChanged) { }
 	public void keyTyped(KeyEvent e) { }
@@ -0,0 +1,240 @@
+import java.util.Arrays;
+
+/**
+ * The vertex positions and triangles of a mesh in flat arrays, as read from a file.
+ * Vertex i has its position stored in 'positions' from i*3, and triangle i has the
+ * indices of its vertices stored in 'faces' from i*3. The arrays grow as data is added,
+ * so they can be longer than the mesh.
+ * A mesh read from a binary file can also have the normal of each corner of each face,
+ * stored from i*9 for triangle i, and the springs of a jello object. Spring i connects
+ * the vertices stored at spring_endpoints[i*2] and spring_endpoints[i*2 + 1].
+ */
+public class MeshData {
+
+	private float[] positions = new float[3*64];
+	private int[] faces = new int[3*64];
+	private int num_verts = 0;
+	private int num_faces = 0;
+
+	private float[] normals;
+	private int num_springs = 0;
+	private int[] spring_endpoints;
+	private float[] spring_constants;
+
+	public MeshData() {}
+
+	/**
+	 * Creates a mesh that uses the given arrays.
+	 */
+	public MeshData(float[] positions, int num_verts, int[] faces, int num_faces) {
+		this.positions = positions;
+		this.num_verts = num_verts;
+		this.faces = faces;
+		this.num_faces = num_faces;
+	}
+
+	public void addVertex(float x, float y, float z) {
+		if (num_verts*3 == positions.length) {
+			positions = Arrays.copyOf(positions, positions.length*2);
+		}
+		positions[num_verts*3] = x;
+		positions[num_verts*3 + 1] = y;
+		positions[num_verts*3 + 2] = z;
+		num_verts++;
+	}
+
+	public void addFace(int v1, int v2, int v3) {
+		if (num_faces*3 == faces.length) {
+			faces = Arrays.copyOf(faces, faces.length*2);
+		}
+		faces[num_faces*3] = v1;
+		faces[num_faces*3 + 1] = v2;
+		faces[num_faces*3 + 2] = v3;
+		num_faces++;
+	}
+
+	/**
+	 * Merges the vertices that are within the given distance of an earlier vertex into
+	 * that vertex, and points the faces at the vertices that are kept. Faces that lose a
+	 * corner this way have no area, so they are removed. The vertices are found with a
+	 * spatial hash of cells the size of the distance, so each vertex is only compared to
+	 * the vertices in the 27 cells around it. The kept vertices stay in the same order.
+	 * Only meshes without normals or springs can be welded, since those are stored for
+	 * the faces and vertices before welding.
+	 * @param epsilon
+	 * @return The number of vertices removed.
+	 */
+	public int weld(float epsilon) {
+		if (normals != null || spring_endpoints != null) {
+			throw new IllegalStateException("Only meshes without normals or springs can be welded");
+		}
+		float epsilon_squared = epsilon*epsilon;
+		float inverse_cell_size = 1f/epsilon;
+		
+//		Open addressing hash map from the key of a cell to the last vertex kept in it, 
+//		where the vertices in the same cell are linked through 'next_in_cell'. A key of
+//		-1 marks an empty slot.
+		long[] cell_keys = new long[Math.max(Integer.highestOneBit(Math.max(num_verts, 1))*4, 16)];
+		int[] cell_heads = new int[cell_keys.length];
+		Arrays.fill(cell_keys, -1L);
+		int[] next_in_cell = new int[num_verts];
+		int[] remap = new int[num_verts];
+		
+		int num_kept = 0;
+		for (int i = 0; i < num_verts; i++) {
+			float x = positions[i*3], y = positions[i*3 + 1], z = positions[i*3 + 2];
+			int cell_x = (int) Math.floor(x*inverse_cell_size);
+			int cell_y = (int) Math.floor(y*inverse_cell_size);
+			int cell_z = (int) Math.floor(z*inverse_cell_size);
+			
+//			Look for a kept vertex close enough in the cells around the vertex.
+			int match = -1;
+			for (int j = 0; j < 27 && match < 0; j++) {
+				int slot = findCell(cell_keys, getCellKey(cell_x + j % 3 - 1, cell_y + (j/3) % 3 - 1, cell_z + j/9 - 1));
+				if (cell_keys[slot] == -1L) {
+					continue;
+				}
+				for (int k = cell_heads[slot]; k >= 0; k = next_in_cell[k]) {
+					float d_x = positions[k*3] - x, d_y = positions[k*3 + 1] - y, d_z = positions[k*3 + 2] - z;
+					if (d_x*d_x + d_y*d_y + d_z*d_z <= epsilon_squared) {
+						match = k;
+						break;
+					}
+				}
+			}
+			if (match >= 0) {
+				remap[i] = match;
+				continue;
+			}
+			
+//			Keep the vertex. The kept vertices are moved down over the removed ones.
+			positions[num_kept*3] = x;
+			positions[num_kept*3 + 1] = y;
+			positions[num_kept*3 + 2] = z;
+			remap[i] = num_kept;
+			
+			long key = getCellKey(cell_x, cell_y, cell_z);
+			int slot = findCell(cell_keys, key);
+			if (cell_keys[slot] == -1L) {
+				cell_keys[slot] = key;
+				next_in_cell[num_kept] = -1;
+			}
+			else {
+				next_in_cell[num_kept] = cell_heads[slot];
+			}
+			cell_heads[slot] = num_kept;
+			num_kept++;
+		}
+		
+//		Point the faces at the kept vertices, and drop the faces with no area.
+		int num_kept_faces = 0;
+		for (int i = 0; i < num_faces; i++) {
+			int v1 = remap[faces[i*3]], v2 = remap[faces[i*3 + 1]], v3 = remap[faces[i*3 + 2]];
+			if (v1 == v2 || v2 == v3 || v1 == v3) {
+				continue;
+			}
+			faces[num_kept_faces*3] = v1;
+			faces[num_kept_faces*3 + 1] = v2;
+			faces[num_kept_faces*3 + 2] = v3;
+			num_kept_faces++;
+		}
+		
+		int num_removed = num_verts - num_kept;
+		num_verts = num_kept;
+		num_faces = num_kept_faces;
+		return num_removed;
+	}
+	
+	/**
+	 * Packs the coordinates of a cell into a key. Cells far apart can share a key,
+	 * which only means more vertices are compared.
+	 */
+	private static long getCellKey(int cell_x, int cell_y, int cell_z) {
+		return ((long) (cell_x & 0x1FFFFF) << 42) | ((long) (cell_y & 0x1FFFFF) << 21) | (cell_z & 0x1FFFFF);
+	}
+	
+	/**
+	 * Returns the slot of the given key, or the empty slot where it would go.
+	 */
+	private static int findCell(long[] cell_keys, long key) {
+		int slot = (int) ((key*0x9E3779B97F4A7C15L) >>> 32) & (cell_keys.length - 1);
+		while (cell_keys[slot] != -1L && cell_keys[slot] != key) {
+			slot = (slot + 1) & (cell_keys.length - 1);
+		}
+		return slot;
+	}
+
+	/**
+	 * Moves the vertices into the given order and points the faces and springs at their
+	 * new indices. The faces keep their order, so the normals of their corners stay valid.
+	 * @param order The vertex that becomes vertex i is stored at order[i], see VertexOrder.
+	 * @return The new index of each vertex.
+	 */
+	public int[] reorder(int[] order) {
+		int[] new_indices = new int[num_verts];
+		float[] new_positions = new float[num_verts*3];
+		for (int i = 0; i < num_verts; i++) {
+			new_indices[order[i]] = i;
+			new_positions[i*3] = positions[order[i]*3];
+			new_positions[i*3 + 1] = positions[order[i]*3 + 1];
+			new_positions[i*3 + 2] = positions[order[i]*3 + 2];
+		}
+		positions = new_positions;
+		
+		for (int i = 0; i < num_faces*3; i++) {
+			faces[i] = new_indices[faces[i]];
+		}
+		for (int i = 0; i < num_springs*2 && spring_endpoints != null; i++) {
+			spring_endpoints[i] = new_indices[spring_endpoints[i]];
+		}
+		return new_indices;
+	}
+
+	public boolean hasNormals() {
+		return normals != null;
+	}
+
+	public boolean hasSprings() {
+		return spring_endpoints != null;
+	}
+
+	/**
+	 * Getters
+	 */
+	public float[] getPositions() {
+		return positions;
+	}
+	public int[] getFaces() {
+		return faces;
+	}
+	public int getNumVerts() {
+		return num_verts;
+	}
+	public int getNumFaces() {
+		return num_faces;
+	}
+	public float[] getNormals() {
+		return normals;
+	}
+	public int getNumSprings() {
+		return num_springs;
+	}
+	public int[] getSpringEndpoints() {
+		return spring_endpoints;
+	}
+	public float[] getSpringConstants() {
+		return spring_constants;
+	}
+
+	/**
+	 * Setters
+	 */
+	public void setNormals(float[] normals) {
+		this.normals = normals;
+	}
+	public void setSprings(int num_springs, int[] spring_endpoints, float[] spring_constants) {
+		this.num_springs = num_springs;
+		this.spring_endpoints = spring_endpoints;
+		this.spring_constants = spring_constants;
+	}
+}
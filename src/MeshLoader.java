@@ -0,0 +1,406 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Loads meshes from disk and turns them into Objects that can be simulated
+ * or collided with. Nothing in here depends on OpenGL, so it can be used by
+ * the game as well as the headless simulation.
+ */
+public class MeshLoader {
+	
+//	Vertices of a .obj file closer than this are merged into one, set with
+//	-Djello.mesh.weld_epsilon=<distance>. A distance of 0 keeps every vertex.
+	public static final float WELD_EPSILON = Float.parseFloat(System.getProperty("jello.mesh.weld_epsilon", "1e-5"));
+	
+//	The most significant digits readFloat reads into a long, few enough that it can't overflow.
+//	It only parses a number itself when its digits make a whole number up to MAX_MANTISSA and
+//	it is scaled by one of the powers of ten, which are all exactly represented by a float.
+	private static final int MAX_DIGITS = 18;
+	private static final long MAX_MANTISSA = 1 << 24;
+	private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+	
+	/* load a .obj mesh from disk file
+	 * 'input_verts' and 'input_faces' store the vertex and face data of the input mesh respectively
+	 * each element in 'input_verts' is a 3D points defining the vertex
+	 * every three integers in 'input_faces' define the indexes of the three vertices that make a triangle
+	 * there are in total input_faces.size()/3 triangles
+	 */ 
+	public static void loadMesh(String filename, ArrayList<Point3f> input_verts, ArrayList<Integer> input_faces) {
+		MeshData mesh = readMesh(filename);
+		float[] positions = mesh.getPositions();
+		int[] faces = mesh.getFaces();
+		for (int i = 0; i < mesh.getNumVerts(); i++) {
+			input_verts.add(new Point3f(positions[i*3], positions[i*3 + 1], positions[i*3 + 2]));
+		}
+		for (int i = 0; i < mesh.getNumFaces()*3; i++) {
+			input_faces.add(faces[i]);
+		}
+	}
+	
+	/**
+	 * Reads the vertices and faces of a .obj file. The file is mapped into memory and the
+	 * numbers are parsed straight from its bytes. Faces can give their vertices as v, v/vt,
+	 * v//vn or v/vt/vn, where only v is used, and negative indices count back from the last
+	 * vertex read. Faces with more than 3 vertices are split into a fan of triangles around
+	 * their first vertex. Everything other than v and f lines is skipped. The vertices are
+	 * then welded, see WELD_EPSILON.
+	 * Files ending in BinaryMesh.EXTENSION are read as binary meshes instead.
+	 * @param filename
+	 * @return
+	 */
+	public static MeshData readMesh(String filename) {
+		if (filename.endsWith(BinaryMesh.EXTENSION)) {
+			return BinaryMesh.read(filename);
+		}
+		
+		MeshData mesh = new MeshData();
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+			ByteBuffer in = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			while (in.hasRemaining()) {
+				skipSpaces(in);
+				if (isKeyword(in, 'v')) {
+					in.position(in.position() + 1);
+					float x = readFloat(in);
+					float y = readFloat(in);
+					float z = readFloat(in);
+					mesh.addVertex(x, y, z);
+				}
+				else if (isKeyword(in, 'f')) {
+					in.position(in.position() + 1);
+					readFace(in, mesh);
+				}
+				skipLine(in);
+			}
+		} catch (IOException e) {
+			System.out.println("Error reading from file " + filename);
+			System.exit(0);
+		}
+		
+		System.out.println("Read " + mesh.getNumVerts() +
+						" vertices and " + mesh.getNumFaces() + " faces.");
+		
+//		Merge the vertices duplicated along seams, so jello objects don't get extra mass 
+//		points and zero length springs.
+		if (WELD_EPSILON > 0) {
+			int num_faces = mesh.getNumFaces();
+			int num_removed = mesh.weld(WELD_EPSILON);
+			System.out.println("Welded away " + num_removed + " vertices and " + (num_faces - mesh.getNumFaces()) + " faces.");
+		}
+		return mesh;
+	}
+	
+	/**
+	 * Reads the vertices of a face line and adds its triangles to the mesh.
+	 */
+	private static void readFace(ByteBuffer in, MeshData mesh) {
+		int first_vertex = -1, previous_vertex = -1;
+		while (true) {
+			skipSpaces(in);
+			if (!in.hasRemaining() || !isDigit(in.get(in.position())) && in.get(in.position()) != '-') {
+				return;
+			}
+			
+//			When defining faces, .obj assumes the vertex index starts from 1, so subtract 1 
+//			from each index. The texture coordinate and normal indices after it are skipped.
+			int vertex = readInt(in);
+			vertex = vertex < 0 ? mesh.getNumVerts() + vertex : vertex - 1;
+			while (in.hasRemaining() && !isSpace(in.get(in.position())) && !isLineEnd(in.get(in.position()))) {
+				in.get();
+			}
+			
+			if (first_vertex < 0) {
+				first_vertex = vertex;
+			}
+			else if (previous_vertex < 0) {
+				previous_vertex = vertex;
+			}
+			else {
+				mesh.addFace(first_vertex, previous_vertex, vertex);
+				previous_vertex = vertex;
+			}
+		}
+	}
+	
+	/**
+	 * Reads a decimal number starting at the position of the buffer, after any spaces.
+	 * The digits are gathered into a long, which is then multiplied or divided by a power
+	 * of ten as a float. Both are exact floats, so the one rounding of that operation gives
+	 * the same float as Float.parseFloat. Numbers whose digits or exponent are too large
+	 * for that and anything else, like NaN or hexadecimal numbers, are passed on to
+	 * Float.parseFloat.
+	 */
+	private static float readFloat(ByteBuffer in) {
+		skipSpaces(in);
+		int start = in.position();
+		int i = start, limit = in.limit();
+		
+		boolean negative = false;
+		if (i < limit && (in.get(i) == '-' || in.get(i) == '+')) {
+			negative = in.get(i) == '-';
+			i++;
+		}
+		
+		long mantissa = 0;
+		int num_digits = 0, exponent = 0;
+		boolean has_digits = false;
+		for (; i < limit && isDigit(in.get(i)); i++) {
+			has_digits = true;
+			mantissa = mantissa*10 + (in.get(i) - '0');
+			num_digits += mantissa != 0 ? 1 : 0;
+		}
+		if (i < limit && in.get(i) == '.') {
+			for (i++; i < limit && isDigit(in.get(i)); i++) {
+				has_digits = true;
+				mantissa = mantissa*10 + (in.get(i) - '0');
+				num_digits += mantissa != 0 ? 1 : 0;
+				exponent--;
+			}
+		}
+		if (has_digits && i < limit && (in.get(i) == 'e' || in.get(i) == 'E')) {
+			in.position(i + 1);
+			exponent += readInt(in);
+			i = in.position();
+		}
+		
+		if (!has_digits || num_digits > MAX_DIGITS || mantissa > MAX_MANTISSA
+				|| exponent <= -POWERS_OF_TEN.length || exponent >= POWERS_OF_TEN.length
+				|| i < limit && !isSpace(in.get(i)) && !isLineEnd(in.get(i))) {
+			in.position(start);
+			return Float.parseFloat(readToken(in));
+		}
+		in.position(i);
+		
+		float value = mantissa;
+		if (exponent >= 0) {
+			value *= POWERS_OF_TEN[exponent];
+		}
+		else {
+			value /= POWERS_OF_TEN[-exponent];
+		}
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Reads a whole number with an optional sign starting at the position of the buffer.
+	 */
+	private static int readInt(ByteBuffer in) {
+		boolean negative = false;
+		if (in.hasRemaining() && (in.get(in.position()) == '-' || in.get(in.position()) == '+')) {
+			negative = in.get() == '-';
+		}
+		int value = 0;
+		while (in.hasRemaining() && isDigit(in.get(in.position()))) {
+			value = value*10 + (in.get() - '0');
+		}
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Returns the bytes up to the next space or line end as a String.
+	 */
+	private static String readToken(ByteBuffer in) {
+		StringBuilder token = new StringBuilder();
+		while (in.hasRemaining() && !isSpace(in.get(in.position())) && !isLineEnd(in.get(in.position()))) {
+			token.append((char) in.get());
+		}
+		return token.toString();
+	}
+	
+	/**
+	 * Returns whether or not the line at the position of the buffer starts with the given
+	 * one letter keyword, followed by a space.
+	 */
+	private static boolean isKeyword(ByteBuffer in, char keyword) {
+		int i = in.position();
+		return i + 1 < in.limit() && in.get(i) == keyword && isSpace(in.get(i + 1));
+	}
+	
+	private static void skipSpaces(ByteBuffer in) {
+		while (in.hasRemaining() && isSpace(in.get(in.position()))) {
+			in.get();
+		}
+	}
+	
+	/**
+	 * Moves the position of the buffer to the start of the next line.
+	 */
+	private static void skipLine(ByteBuffer in) {
+		while (in.hasRemaining()) {
+			if (in.get() == '\n') {
+				return;
+			}
+		}
+	}
+	
+	private static boolean isDigit(byte c) {
+		return c >= '0' && c <= '9';
+	}
+	
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\t';
+	}
+	
+	private static boolean isLineEnd(byte c) {
+		return c == '\n' || c == '\r';
+	}
+	
+	/**
+	 * Loads the mesh in the given file into an Object.
+	 * @param filename
+	 * @param vertex_mass The mass of each vertex.
+	 * @return
+	 */
+	public static Object loadObject(String filename, float vertex_mass) {
+		return createObject(readMesh(filename), vertex_mass);
+	}
+	
+	/**
+	 * Turns the given mesh into an Object. The normals and springs of the mesh are used 
+	 * if it has them, otherwise the normals are estimated and the object has no springs.
+	 * @param mesh
+	 * @param vertex_mass The mass of each vertex.
+	 * @return
+	 */
+	public static Object createObject(MeshData mesh, float vertex_mass) {
+		float[] positions = mesh.getPositions();
+		int[] faces = mesh.getFaces();
+		ArrayList<Vertex> object_verts = new ArrayList<Vertex>(mesh.getNumVerts());
+		ArrayList<Integer> input_faces = new ArrayList<Integer>(mesh.getNumFaces()*3);
+		ArrayList<Vector3f> object_normals = new ArrayList<Vector3f>();
+		
+		for (int i = 0; i < mesh.getNumVerts(); i++) {
+			Point3f cur_position = new Point3f(positions[i*3], positions[i*3 + 1], positions[i*3 + 2]);
+			Vector3f cur_velocity = new Vector3f(0, 0, 0);
+			Vertex cur_vert = new Vertex(cur_position, vertex_mass, cur_velocity);
+			object_verts.add(cur_vert);
+		}
+		for (int i = 0; i < mesh.getNumFaces()*3; i++) {
+			input_faces.add(faces[i]);
+		}
+		if (mesh.hasNormals()) {
+			float[] normals = mesh.getNormals();
+			for (int i = 0; i < mesh.getNumFaces()*3; i++) {
+				object_normals.add(new Vector3f(normals[i*3], normals[i*3 + 1], normals[i*3 + 2]));
+			}
+		}
+		else {
+			estimateFaceNormal(object_verts, input_faces, object_normals);
+		}
+		
+		Object object = new Object(object_verts, input_faces, object_normals);
+		if (mesh.hasSprings()) {
+			object.setSpringNetwork(SpringNetwork.createSprings(object.getVerts(), mesh.getNumSprings(), 
+																mesh.getSpringEndpoints(), mesh.getSpringConstants()));
+		}
+		return object;
+	}
+	
+	/**
+	 * Loads the jello object in the given file, scales it to fit the given dimensions,
+	 * and moves it to the given starting point.
+	 * @param filename
+	 * @param vertex_mass The mass of each vertex.
+	 * @param max_dimensions Used to scale jello objects to a similar size.
+	 * @param start_point The point where the first vertex of the file is placed.
+	 * @return
+	 */
+	public static Object loadJelloObject(String filename, float vertex_mass, Vector3f max_dimensions, Point3f start_point) {
+		MeshData mesh = readMesh(filename);
+		
+//		Put the vertices in an order that keeps the ends of each spring close in memory, see
+//		VertexOrder. The first vertex of the file is still the one placed at the start point.
+		int first_vertex = 0;
+		if (VertexOrder.isEnabled()) {
+			first_vertex = mesh.reorder(VertexOrder.compute(VertexOrder.DEFAULT_ORDER, mesh))[0];
+		}
+		
+		Object jello_object = createObject(mesh, vertex_mass);
+		ArrayList<Vertex> object_verts = jello_object.getVerts();
+		
+//		Scale down the object to fit in a certain bounding box.
+		Vector3f boundingBox = computeBoundingBox(object_verts);
+		Vector3f scaleFactors = new Vector3f(max_dimensions.x/boundingBox.x, max_dimensions.y/boundingBox.y, max_dimensions.z/boundingBox.z);
+		float scaleFactor = scaleFactors.x > scaleFactors.y ? scaleFactors.x : scaleFactors.y;
+		scaleFactor = scaleFactors.z > scaleFactor ? scaleFactors.z : scaleFactor;
+		for (Vertex v : object_verts) {
+			v.getPosition().scale(scaleFactor);
+		}
+		
+//		Move the object to the starting point.
+		Point3f pointOnObject = object_verts.get(first_vertex).getPosition();
+		Point3f vectorToStartPoint = new Point3f(start_point);
+		vectorToStartPoint.sub(pointOnObject);
+		for (Vertex v : object_verts) {
+			v.getPosition().add(vectorToStartPoint);
+		}
+		
+		estimateFaceNormal(object_verts, jello_object.getFaces(), jello_object.getNormals());
+		
+//		Springs saved with the mesh get their equilibrium lengths from the new size.
+		SpringNetwork spring_network = jello_object.getSpringNetwork();
+		if (spring_network != null) {
+			jello_object.setSpringNetwork(SpringNetwork.createSprings(object_verts, spring_network.getNumSprings(), 
+																	spring_network.getEndpoints(), spring_network.getSpringConstants()));
+		}
+		return jello_object;
+	}
+	
+	/* estimate face normals */
+	public static void estimateFaceNormal(ArrayList<Vertex> verts, ArrayList<Integer> faces, ArrayList<Vector3f> normals) {
+		int i;
+		normals.clear();
+		for (i = 0; i < faces.size(); i ++) {
+			normals.add(new Vector3f());
+		}
+		
+		Vector3f e1 = new Vector3f();
+		Vector3f e2 = new Vector3f();
+		for (i = 0; i < faces.size()/3; i ++) {
+			// get face
+			int v1 = faces.get(3*i+0);
+			int v2 = faces.get(3*i+1);
+			int v3 = faces.get(3*i+2);
+			
+			Point3f v1_position = verts.get(v1).getPosition();
+			Point3f v2_position = verts.get(v2).getPosition();
+			Point3f v3_position = verts.get(v3).getPosition();
+			
+			// compute normal
+			e1.sub(v2_position, v1_position);
+			e2.sub(v3_position, v1_position);
+			normals.get(i*3+0).cross(e1, e2);
+			normals.get(i*3+0).normalize();
+			normals.get(i*3+1).cross(e1, e2);
+			normals.get(i*3+1).normalize();
+			normals.get(i*3+2).cross(e1, e2);
+			normals.get(i*3+2).normalize();
+		}
+	}
+	
+	/* find the bounding box for the vertices */
+	public static Vector3f computeBoundingBox(ArrayList<Vertex> verts) {
+		float xmin, ymin, zmin, xmax, ymax, zmax;
+		xmax = xmin = verts.get(0).getPosition().x;
+		ymax = ymin = verts.get(0).getPosition().y;
+		zmax = zmin = verts.get(0).getPosition().z;
+
+		for (int i = 1; i < verts.size(); i ++) {
+			Point3f position = verts.get(i).getPosition();
+			xmax = Math.max(xmax, position.x);
+			xmin = Math.min(xmin, position.x);
+			ymax = Math.max(ymax, position.y);
+			ymin = Math.min(ymin, position.y);
+			zmax = Math.max(zmax, position.z);
+			zmin = Math.min(zmin, position.z);			
+		}
+
+		Vector3f box = new Vector3f(xmax - xmin, ymax - ymin, zmax - zmin);
+		
+		return box;
+	}
+}
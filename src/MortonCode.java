@@ -0,0 +1,41 @@
+/**
+ * Computes Morton codes, which order points along a curve through a box so that points
+ * close together in the order are also close in space. The box is split into
+ * 2^BITS cells along each axis, and the code of a cell interleaves the bits of its
+ * coordinates.
+ */
+public class MortonCode {
+
+//	The number of bits per axis in the codes.
+	public static final int BITS = 10;
+
+	/**
+	 * Returns the factor that turns a coordinate relative to the low side of a box into a
+	 * cell coordinate, or 0 if the box is flat along that axis.
+	 * @param min The low side of the box along the axis.
+	 * @param max The high side of the box along the axis.
+	 * @return
+	 */
+	public static float getScale(float min, float max) {
+		return max > min ? ((1 << BITS) - 1)/(max - min) : 0;
+	}
+
+	/**
+	 * Interleaves the bits of the cell coordinates, x in the lowest bit.
+	 */
+	public static int getCode(int x, int y, int z) {
+		return spreadBits(x) | (spreadBits(y) << 1) | (spreadBits(z) << 2);
+	}
+
+	/**
+	 * Spreads the lowest 10 bits of the value out so there are 2 zero bits between each of them.
+	 */
+	private static int spreadBits(int value) {
+		value &= 0x3FF;
+		value = (value | (value << 16)) & 0x030000FF;
+		value = (value | (value << 8)) & 0x0300F00F;
+		value = (value | (value << 4)) & 0x030C30C3;
+		value = (value | (value << 2)) & 0x09249249;
+		return value;
+	}
+}
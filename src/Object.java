@@ -13,17 +13,22 @@ public class Object {
 	private ArrayList<Vertex> object_verts = new ArrayList<Vertex>();
 	private ArrayList<Integer> object_faces = new ArrayList<Integer>();
 	private ArrayList<Vector3f> object_normals = new ArrayList<Vector3f>();
+	private SpringNetwork spring_network;
 	
+	/**
+	 * Copies the vertices and normals of the given object. The faces and springs 
+	 * never change, so they are shared with the given object instead of copied.
+	 * @param object
+	 */
 	public Object(Object object) {
 		for (Vertex v : object.getVerts()) {
 			object_verts.add(v.clone());
 		}
-		for (int face_index : object.getFaces()) {
-			object_faces.add(face_index);
-		}
+		object_faces = object.getFaces();
 		for (Vector3f normal : object.getNormals()) {
 			object_normals.add(new Vector3f(normal));
 		}
+		spring_network = object.getSpringNetwork();
 	}
 	
 	public Object(ArrayList<Vertex> input_verts, ArrayList<Integer> input_faces, ArrayList<Vector3f> input_normals) {
@@ -50,4 +55,11 @@ public class Object {
 	public ArrayList<Vector3f> getNormals() {
 		return object_normals;
 	}
+	public SpringNetwork getSpringNetwork() {
+		return spring_network;
+	}
+	
+	public void setSpringNetwork(SpringNetwork spring_network) {
+		this.spring_network = spring_network;
+	}
 }
@@ -0,0 +1,150 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Adds the forces from the springs of a soft body using several threads of a fork-join pool.
+ * The springs are split into one contiguous batch per worker, and each worker adds its
+ * springs into its own force buffer so no 2 workers write to the same memory. The buffers
+ * are then summed in worker order, so the result only depends on the number of workers 
+ * and not on how the threads get scheduled.
+ */
+public class ParallelSpringForces {
+	
+//	The number of threads the game adds the spring forces of a jello with, set with
+//	-Djello.physics.threads=<n>. Only worth raising for jellos with a lot of springs.
+	public static final int NUM_THREADS = Integer.parseInt(System.getProperty("jello.physics.threads", "1"));
+	
+	private static ForkJoinPool pool;
+	
+	private int num_verts;
+	private int num_workers;
+	private float[][] worker_forces;
+	private AccumulateTask[] accumulate_tasks;
+	private ReduceTask[] reduce_tasks;
+	private StepTask step_task = new StepTask();
+	
+//	The arguments of the current call to 'accumulate'.
+	private SpringNetwork spring_network;
+	private float[] positions;
+	private float[] forces;
+	
+	public ParallelSpringForces(int num_verts, int num_workers) {
+		this.num_verts = num_verts;
+		this.num_workers = num_workers;
+		
+		worker_forces = new float[num_workers][num_verts*3];
+		accumulate_tasks = new AccumulateTask[num_workers];
+		reduce_tasks = new ReduceTask[num_workers];
+		for (int i = 0; i < num_workers; i++) {
+			accumulate_tasks[i] = new AccumulateTask(i);
+			reduce_tasks[i] = new ReduceTask(i);
+		}
+	}
+	
+	/**
+	 * Adds the forces from all the springs in the network to the given forces.
+	 * @param spring_network
+	 * @param positions The positions of the vertices.
+	 * @param forces The forces on the vertices.
+	 */
+	public void accumulate(SpringNetwork spring_network, float[] positions, float[] forces) {
+		this.spring_network = spring_network;
+		this.positions = positions;
+		this.forces = forces;
+		
+		step_task.reinitialize();
+		getPool().invoke(step_task);
+		
+		this.spring_network = null;
+		this.positions = null;
+		this.forces = null;
+	}
+	
+	public int getNumWorkers() {
+		return num_workers;
+	}
+	
+//	The pool is shared with CollisionBatch, so the physics only ever starts one set of threads.
+	static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	}
+	
+	/**
+	 * Returns the start of the given worker's share of 'count' items.
+	 */
+	private int getBatchStart(int worker, int count) {
+		return (int) ((long) count*worker/num_workers);
+	}
+	
+	/**
+	 * Runs all the workers on the springs, then sums their forces.
+	 */
+	private class StepTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		protected void compute() {
+			for (AccumulateTask task : accumulate_tasks) {
+				task.reinitialize();
+			}
+			ForkJoinTask.invokeAll(accumulate_tasks);
+			
+			for (ReduceTask task : reduce_tasks) {
+				task.reinitialize();
+			}
+			ForkJoinTask.invokeAll(reduce_tasks);
+		}
+	}
+	
+	/**
+	 * Adds the forces from one worker's batch of springs into the worker's force buffer.
+	 */
+	private class AccumulateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private int worker;
+		
+		AccumulateTask(int worker) {
+			this.worker = worker;
+		}
+		
+		protected void compute() {
+			float[] cur_forces = worker_forces[worker];
+			Arrays.fill(cur_forces, 0f);
+			
+			int num_springs = spring_network.getNumSprings();
+			Physics.accumulateSpringForces(spring_network, positions, cur_forces, 
+											getBatchStart(worker, num_springs), getBatchStart(worker + 1, num_springs));
+		}
+	}
+	
+	/**
+	 * Adds the forces of every worker buffer to one range of the vertices, always in
+	 * worker order.
+	 */
+	private class ReduceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private int worker;
+		
+		ReduceTask(int worker) {
+			this.worker = worker;
+		}
+		
+		protected void compute() {
+			int start = getBatchStart(worker, num_verts)*3;
+			int end = getBatchStart(worker + 1, num_verts)*3;
+			
+			for (int w = 0; w < num_workers; w++) {
+				float[] cur_forces = worker_forces[w];
+				for (int i = start; i < end; i++) {
+					forces[i] += cur_forces[i];
+				}
+			}
+		}
+	}
+}
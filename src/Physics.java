@@ -1,8 +1,3 @@
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-
-import javax.vecmath.Point3f;
 import javax.vecmath.Vector3f;
 
 
@@ -10,303 +5,249 @@ import javax.vecmath.Vector3f;
 public class Physics {
 	
 	/**
-	 * Updates the position of the given vertices based on the forces applied
-	 * by the springs using the Runge Kutta 2nd order method.
-	 * @param curr_verts The list of vertices.
-	 * @param edge_adjacency The map containing the edges.
+	 * Updates the given soft body state using the Runge Kutta 2nd order method, 
+	 * keeping all of the intermediate results in the given workspace so the step does
+	 * not allocate anything on the heap.
+	 * @param state The positions, velocities and collision contacts of the soft body.
+	 * @param workspace The scratch buffers for the soft body.
+	 * @param spring_network The springs of the soft body.
 	 * @param external_force An external force that should be applied to all
 	 * vertices, such as gravity.
 	 */
-	public static void computeRungeKutta(ArrayList<Vertex> object_verts, 
-										HashMap<Integer, Edge> edge_adjacency,
-										ArrayList<Vector3f> normals,
-										ArrayList<Vertex> collision_verts,
-										ArrayList<Integer> collision_faces,
-										CollisionTree collision_tree,
+	public static void computeRungeKutta(SoftBodyState state,
+										PhysicsWorkspace workspace,
+										SpringNetwork spring_network,
+										CollisionStructure collision_tree,
 										float collision_spring_constant,
 										float cushion_amount,
-										Vector3f external_force, 
+										Vector3f external_force,
 										float time_interval) {
-
+		
+		int num_coords = state.getNumVerts()*3;
+		float[] positions = state.getPositions();
+		float[] velocities = state.getVelocities();
+		float[] prev_positions = state.getPrevPositions();
+		float[] initial_accelerations = workspace.getInitialAccelerations();
+		float[] first_guess_positions = workspace.getFirstGuessPositions();
+		float[] first_guess_accelerations = workspace.getFirstGuessAccelerations();
 		
 //		Set the collision status of each vertice.
-		setCollisionStatus(object_verts, collision_verts, collision_faces, collision_tree, cushion_amount);
+		setCollisionStatus(state, workspace, collision_tree, cushion_amount);
 		
-//		Compute the position and velocity of the first guess.
-		ArrayList<Vector3f> initial_accelerations = computeAcceleration(object_verts, edge_adjacency, normals, collision_verts, collision_faces, collision_tree, collision_spring_constant, cushion_amount, external_force);
+//		Compute the accelerations at the current positions.
+		computeAcceleration(state, workspace, positions, true, spring_network, collision_tree.getFaceTable(), collision_spring_constant, cushion_amount, external_force, initial_accelerations);
 		
-		ArrayList<Vertex> first_guess = copyVertices(object_verts);
-		for (Vertex v : first_guess) {
-			Point3f position = v.getPosition();
-			Vector3f velocity = new Vector3f(v.getVelocity());
-			velocity.scale(time_interval);
-			
-			position.add(velocity);
-		}
-		for (int i = 0; i < first_guess.size(); i++) {
-			Vertex v = first_guess.get(i);
-			Vector3f velocity = v.getVelocity();
-			Vector3f acceleration = new Vector3f(initial_accelerations.get(i));
-			acceleration.scale(time_interval);
-			velocity.add(acceleration);
+//		Compute the positions of the first guess. The velocities of the first guess are
+//		not needed since the accelerations only depend on the positions.
+		for (int i = 0; i < num_coords; i++) {
+			first_guess_positions[i] = positions[i] + velocities[i]*time_interval;
 		}
 		
+//		Compute the accelerations at the first guess. The first guess does not carry
+//		any collision contacts.
+		computeAcceleration(state, workspace, first_guess_positions, false, spring_network, collision_tree.getFaceTable(), collision_spring_constant, cushion_amount, external_force, first_guess_accelerations);
 		
-
-//		Compute the accelerations at the first guess.
-		ArrayList<Vector3f> first_guess_accelerations = computeAcceleration(first_guess, edge_adjacency, normals, collision_verts, collision_faces, collision_tree, collision_spring_constant, cushion_amount, external_force);
-		
-//		Compute the average of the accelerations deltas.
-		ArrayList<Vector3f> average_accelerations = new ArrayList<Vector3f>();
-		for (int i = 0; i < initial_accelerations.size(); i++) {
-			Vector3f average_acceleration = new Vector3f(initial_accelerations.get(i));
-			average_acceleration.add(first_guess_accelerations.get(i));
-			average_acceleration.scale(.5f);
-			average_accelerations.add(average_acceleration);
-		}
-		
-//		Compute the new position of each vertex.
-		for (int i = 0; i < object_verts.size(); i++) {
-			Vertex v = object_verts.get(i);
-			Vector3f velocity = v.getVelocity();
-//			Vector3f acceleration = initial_accelerations.get(i);
-			Vector3f acceleration = average_accelerations.get(i);
-			acceleration.scale(time_interval);
-			velocity.add(acceleration);
-		}
-		for (int i = 0; i < object_verts.size(); i++) {
-			Vertex v = object_verts.get(i);
-			Vector3f velocity = new Vector3f(v.getVelocity());
-			Point3f position = v.getPosition();
-			
-//			Set the previous position of the vertex to be the current position.
-			v.setPrevPosition(new Point3f(position));
+//		Compute the new velocity and position of each vertex from the average of the
+//		accelerations. The averaged acceleration is added to the velocity a second time
+//		before moving the vertex.
+		for (int i = 0; i < num_coords; i++) {
+			float velocity_delta = (initial_accelerations[i] + first_guess_accelerations[i])*.5f*time_interval;
+			velocities[i] += velocity_delta;
 			
-			Vector3f k0 = new Vector3f(initial_accelerations.get(i));
-			Vector3f k1 = new Vector3f(first_guess_accelerations.get(i));
-			k0.scale(1f/2f);
-			k1.scale(1f/2f);
-			k0.add(k1);
-			k0.scale(time_interval);
-			velocity.add(k0);
-			velocity.scale(time_interval);
-			position.add(velocity);
-		}		
-	}
-	
-	/**
-	 * Returns the force generated by the given edge.
-	 * @param curr_verts
-	 * @param edge
-	 * @return
-	 */
-	private static float getSpringForce(Vertex v0, Vertex v1, Edge edge) {
-		float cur_spring_length = v0.getPosition().distance(v1.getPosition());
-		float spring_constant = edge.getSpringConstant();
-		float equilibrium_length = edge.getEquilibriumLength();
-		float length_delta = cur_spring_length - equilibrium_length;
-		
-		float total_spring_force = length_delta * spring_constant;
-		
-		return total_spring_force;
+			prev_positions[i] = positions[i];
+			positions[i] += (velocities[i] + velocity_delta)*time_interval;
+		}
 	}
 	
-
 	/**
-	 * Computes the accelerations acting on each vertex due 
-	 * to the springs, an external force, and any collisions.
-	 * @param object_verts
-	 * @param edge_adjacency
-	 * @param normals
-	 * @param collision_verts
-	 * @param collision_faces
-	 * @param collision_tree
+	 * Computes the accelerations acting on each vertex of the soft body at the given 
+	 * positions due to the springs, an external force, and any collisions.
+	 * @param state
+	 * @param workspace
+	 * @param positions The positions to compute the accelerations at.
+	 * @param apply_contacts Whether or not to apply the forces from the faces each vertex
+	 * is colliding with.
+	 * @param spring_network
+	 * @param face_table The faces of the collision environment.
 	 * @param collision_spring_constant
 	 * @param external_force
-	 * @return
+	 * @param accelerations Filled with the acceleration of each vertex.
 	 */
-	private static ArrayList<Vector3f> computeAcceleration(ArrayList<Vertex> object_verts, 
-										HashMap<Integer, Edge> edge_adjacency, 
-										ArrayList<Vector3f> normals,
-										ArrayList<Vertex> collision_verts,
-										ArrayList<Integer> collision_faces,
-										CollisionTree collision_tree,
+	private static void computeAcceleration(SoftBodyState state,
+										PhysicsWorkspace workspace,
+										float[] positions,
+										boolean apply_contacts,
+										SpringNetwork spring_network,
+										FaceTable face_table,
 										float collision_spring_constant,
 										float cushion_amount,
-										Vector3f external_force) {
-		
-		
-//		Initialize the edges and make an empty ArrayList to hold the force applied
-//		on each vertex.
-		Collection<Edge> edges = edge_adjacency.values();
-		ArrayList<Vector3f> forces = new ArrayList<Vector3f>();
-		
-//		Compute the force for each vertex after the external force
-//		is applied.
-		for (int i = 0; i < object_verts.size(); i++) {
-			Vector3f external_force_temp = new Vector3f(external_force);
-			forces.add(external_force_temp);
+										Vector3f external_force,
+										float[] accelerations) {
+		
+		int num_verts = state.getNumVerts();
+		float[] inverse_masses = state.getInverseMasses();
+		float[] forces = accelerations;
+		
+//		Start every vertex off with the external force.
+		for (int i = 0; i < num_verts; i++) {
+			forces[i*3] = external_force.x;
+			forces[i*3 + 1] = external_force.y;
+			forces[i*3 + 2] = external_force.z;
 		}
 		
-//		Compute the force for each vertex after the forces from the
-//		springs are applied.
-		for (Edge edge : edges) {
-			int v0_index = edge.getV0();
-			int v1_index = edge.getV1();
-			
-			Vertex v0 = object_verts.get(v0_index);
-			Vertex v1 = object_verts.get(v1_index);
-			
-			float total_spring_force = getSpringForce(v0, v1, edge);
-			
-//			Compute the direction vectors for the forces on the 2 vertices.
-			Vector3f force_v0_direction = new Vector3f(v1.getPosition());
-			force_v0_direction.sub(v0.getPosition());
-			force_v0_direction.normalize();
-			Vector3f force_v1_direction = new Vector3f(force_v0_direction);
-			force_v1_direction.negate();
-			
-//			Compute the force vectors for the 2 vertices.
-			Vector3f force_v0 = new Vector3f(force_v0_direction);
-			force_v0.scale(total_spring_force/2);
-			Vector3f force_v1 = new Vector3f(force_v1_direction);
-			force_v1.scale(total_spring_force/2);
-
-			Vector3f v0_cur_force = forces.get(v0_index);
-			Vector3f v1_cur_force = forces.get(v1_index);
-			v0_cur_force.add(force_v0);
-			v1_cur_force.add(force_v1);
+//		Add the forces from the springs, splitting them between several threads if the
+//		workspace was set up for it.
+		ParallelSpringForces parallel_spring_forces = workspace.getParallelSpringForces();
+		if (parallel_spring_forces != null) {
+			parallel_spring_forces.accumulate(spring_network, positions, forces);
+		}
+		else {
+			accumulateSpringForces(spring_network, positions, forces, 0, spring_network.getNumSprings());
 		}
 		
-		
-//		Detect any collisions with the collision tree, and apply an elastic
-//		force to the vertex if there is a collision.
-		for (int i = 0; i < object_verts.size(); i++) {
-			
-			Vertex v = object_verts.get(i);
-			Point3f position = new Point3f(v.getPosition());
-			
-//			If the collision plane is not null and the vertex is on the wrong side of the plane, compute the elastic force
-//			on the vertex.
-			for (Integer collision_face_index : v.getCollisionFaceIndices()) {
-				Point3f p0 = collision_verts.get(collision_faces.get(collision_face_index)).getPosition();
-				Point3f p1 = collision_verts.get(collision_faces.get(collision_face_index + 1)).getPosition();
-				Point3f p2 = collision_verts.get(collision_faces.get(collision_face_index + 2)).getPosition();
-				
-				Plane collision_plane = new Plane(p0, p1, p2);
-				
-//				Move the origin closer to the plane. A hack to fix vertices "sliding" under
-//				a mesh.
-				Vector3f vector_to_move_closer_to_plane = new Vector3f(collision_plane.getNormal());
-				vector_to_move_closer_to_plane.negate();
-				vector_to_move_closer_to_plane.scale(cushion_amount);
-				position.add(vector_to_move_closer_to_plane);
-				
-				
-				float distance_to_collision_plane = collision_plane.getDistanceToPlane(position);
-				float force_from_floor = distance_to_collision_plane * collision_spring_constant;
+//		Apply an elastic force to each vertex for every face it is colliding with.
+		if (apply_contacts) {
+			for (int i = 0; i < num_verts; i++) {
+				int num_contacts = state.getContactCount(i);
+				if (num_contacts == 0) {
+					continue;
+				}
 				
-				Vector3f force_from_plane = collision_plane.getVectorToPlane(position);
-				force_from_plane.normalize();
-				force_from_plane.scale(force_from_floor);
-				force_from_plane.negate();
+				float x = positions[i*3];
+				float y = positions[i*3 + 1];
+				float z = positions[i*3 + 2];
 				
-				Vector3f cur_force = forces.get(i);
-				cur_force.add(force_from_plane);
+				for (int j = 0; j < num_contacts; j++) {
+					int collision_face_index = state.getContactFaceIndex(i, j);
+					float n_x = face_table.getNormalX(collision_face_index);
+					float n_y = face_table.getNormalY(collision_face_index);
+					float n_z = face_table.getNormalZ(collision_face_index);
+					
+//					Move the origin closer to the plane. A hack to fix vertices "sliding" under
+//					a mesh.
+					x -= n_x*cushion_amount;
+					y -= n_y*cushion_amount;
+					z -= n_z*cushion_amount;
+					
+//					The elastic force always pushes the vertex out along the normal of the face.
+					float distance_to_collision_plane = face_table.getDistanceToPlane(collision_face_index, x, y, z);
+					float force_from_plane = Math.abs(distance_to_collision_plane) * collision_spring_constant;
+					
+					forces[i*3] += n_x*force_from_plane;
+					forces[i*3 + 1] += n_y*force_from_plane;
+					forces[i*3 + 2] += n_z*force_from_plane;
+				}
 			}
 		}
 		
-		
-		
-//		Compute the acceleration by dividing the force on a vertex by the mass
-//		of the vertex.
-		ArrayList<Vector3f> accelerations = forces;
-		for (int i = 0; i < object_verts.size(); i++) {
-			Vertex v = object_verts.get(i);
-			Vector3f acceleration = accelerations.get(i);
-			acceleration.scale(1/v.getMass());
+//		Compute the acceleration by multiplying the force on a vertex by the inverse
+//		of its mass.
+		for (int i = 0; i < num_verts; i++) {
+			float inverse_mass = inverse_masses[i];
+			accelerations[i*3] = forces[i*3]*inverse_mass;
+			accelerations[i*3 + 1] = forces[i*3 + 1]*inverse_mass;
+			accelerations[i*3 + 2] = forces[i*3 + 2]*inverse_mass;
 		}
-		
-		return accelerations;
 	}
 	
+	/**
+	 * Adds the forces from the given range of springs to the forces on their vertices.
+	 * Each spring pulls its 2 vertices towards each other with half of the total spring force.
+	 * @param spring_network
+	 * @param positions The positions of the vertices.
+	 * @param forces The forces on the vertices.
+	 * @param first_spring The index of the first spring to add.
+	 * @param end_spring The index after the last spring to add.
+	 */
+	static void accumulateSpringForces(SpringNetwork spring_network, float[] positions, float[] forces, int first_spring, int end_spring) {
+		int[] endpoints = spring_network.getEndpoints();
+		float[] equilibrium_lengths = spring_network.getEquilibriumLengths();
+		float[] spring_constants = spring_network.getSpringConstants();
+		
+		for (int i = first_spring; i < end_spring; i++) {
+			int v0 = endpoints[i*2]*3;
+			int v1 = endpoints[i*2 + 1]*3;
+			
+			float dx = positions[v1] - positions[v0];
+			float dy = positions[v1 + 1] - positions[v0 + 1];
+			float dz = positions[v1 + 2] - positions[v0 + 2];
+			float cur_spring_length = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+			if (cur_spring_length == 0f) {
+				continue;
+			}
+			
+			float total_spring_force = (cur_spring_length - equilibrium_lengths[i]) * spring_constants[i];
+			float scale = total_spring_force/2/cur_spring_length;
+			
+			forces[v0] += dx*scale;
+			forces[v0 + 1] += dy*scale;
+			forces[v0 + 2] += dz*scale;
+			forces[v1] -= dx*scale;
+			forces[v1 + 1] -= dy*scale;
+			forces[v1 + 2] -= dz*scale;
+		}
+	}
 	
 	/**
-	 * Check to see if which faces each jello vertex is colliding with.
-	 * @param object_verts
-	 * @param collision_verts
-	 * @param collision_faces
+	 * Check to see which faces each vertex of the soft body is colliding with.
+	 * @param state
+	 * @param workspace
 	 * @param collision_tree
 	 */
-	private static void setCollisionStatus(ArrayList<Vertex> object_verts, 
-										ArrayList<Vertex> collision_verts,
-										ArrayList<Integer> collision_faces,
-										CollisionTree collision_tree,
+	private static void setCollisionStatus(SoftBodyState state,
+										PhysicsWorkspace workspace,
+										CollisionStructure collision_tree,
 										float cushion_amount) {
 		
-		for (Vertex v : object_verts) {
-			Point3f position = v.getPosition();
-			Point3f prev_position = v.getPrevPosition();
-	
-//			If the vertex is already colliding with a face apply the force from
-//			the plane it is colliding with.
-
+		float[] positions = state.getPositions();
+		float[] prev_positions = state.getPrevPositions();
+		int[] prev_contacts = workspace.getPrevContacts();
+		CollisionBatch collision_batch = workspace.getCollisionBatch();
+		FaceTable face_table = collision_tree.getFaceTable();
+		
+//		Detect the faces each vertex has moved into with one batch of queries to the collision tree,
+//		unless the whole object is too far away from the faces for any of them to collide.
+		boolean may_collide = collision_tree.mayCollide(prev_positions, positions, state.getNumVerts(), cushion_amount);
+		if (may_collide) {
+			collision_batch.detectCollisions(collision_tree, prev_positions, positions, cushion_amount);
+		}
+		
+		for (int i = 0; i < state.getNumVerts(); i++) {
+			float x = positions[i*3];
+			float y = positions[i*3 + 1];
+			float z = positions[i*3 + 2];
+			
 //			Copy the colliding face indices for the vertex and clear the colliding face indices for the vertex.
-			ArrayList<Integer> collision_face_indices = new ArrayList<Integer>();
-			for (Integer collision_face_index : v.getCollisionFaceIndices()) {
-				collision_face_indices.add(collision_face_index);
+			int num_prev_contacts = state.getContactCount(i);
+			for (int j = 0; j < num_prev_contacts; j++) {
+				prev_contacts[j] = state.getContactFaceIndex(i, j);
 			}
-			v.setCollisionFaceIndices(new ArrayList<Integer>());
+			state.clearContacts(i);
 			
 //			Check to see if the vertex is still colliding with the faces.
-			for (Integer collision_face_index : collision_face_indices) {
+			for (int j = 0; j < num_prev_contacts; j++) {
+				int collision_face_index = prev_contacts[j];
 				
-				Point3f p0 = collision_verts.get(collision_faces.get(collision_face_index)).getPosition();
-				Point3f p1 = collision_verts.get(collision_faces.get(collision_face_index + 1)).getPosition();
-				Point3f p2 = collision_verts.get(collision_faces.get(collision_face_index + 2)).getPosition();
-				
-				Plane collision_plane = new Plane(p0, p1, p2);
+				float n_x = face_table.getNormalX(collision_face_index);
+				float n_y = face_table.getNormalY(collision_face_index);
+				float n_z = face_table.getNormalZ(collision_face_index);
 				
 //				Move the origin closer to the plane. A hack to fix vertices "sliding" under
 //				a mesh.
-				Vector3f vector_to_move_closer_to_plane = new Vector3f(collision_plane.getNormal());
-				vector_to_move_closer_to_plane.negate();
-				vector_to_move_closer_to_plane.scale(cushion_amount);
-				Vector3f origin = new Vector3f(position);
-				origin.add(vector_to_move_closer_to_plane);
-
-				boolean still_colliding = CollisionTree.hit(origin, collision_plane.getNormal(), p0, p1, p2, 0f, 9999f);
-
-
-//				RE-add the face to the faces the vertex is colliding with.
+				boolean still_colliding = face_table.hit(collision_face_index, 
+														x - n_x*cushion_amount, 
+														y - n_y*cushion_amount, 
+														z - n_z*cushion_amount, 
+														n_x, n_y, n_z, 0f, 9999f);
 				if (still_colliding) {
-					v.getCollisionFaceIndices().add(collision_face_index);
+					state.addContact(i, collision_face_index);
 				}
 			}
-	
-			
-//			Detect any new faces the vertex is colliding with by using the collision tree.
-			ArrayList<Integer> new_collision_face_indices = collision_tree.detectCollision(collision_verts, collision_faces, prev_position, position, cushion_amount);
 			
-			for (Integer new_collision_face_index : new_collision_face_indices) {
-				if (!v.getCollisionFaceIndices().contains(new_collision_face_index)) {
-					v.getCollisionFaceIndices().add(new_collision_face_index);
-				}
+//			Add any new faces the vertex is colliding with.
+			for (int j = 0; may_collide && j < collision_batch.getHitCount(i); j++) {
+				state.addContact(i, collision_batch.getHit(i, j));
 			}
 		}
 	}
-	
-	private static ArrayList<Vertex> copyVertices(ArrayList<Vertex> verts) {
-		ArrayList<Vertex> new_verts = new ArrayList<Vertex>();
-		for (Vertex v : verts) {
-			Vector3f vel = new Vector3f(v.getVelocity());
-			Point3f pos = new Point3f(v.getPosition());
-			float mass = v.getMass();
-			
-			Vertex new_v = new Vertex(pos, mass, vel);
-			new_verts.add(new_v);
-		}
-		
-		return new_verts;
-	}
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+/**
+ * Scratch buffers used by Physics to step a soft body without allocating
+ * anything on the heap. Each simulated object should own its own workspace,
+ * sized to the number of vertices in the object. A workspace set up for more
+ * than one thread adds the spring forces and runs the collision queries in parallel.
+ */
+public class PhysicsWorkspace {
+
+	public static final int MAX_COLLISION_HITS = 64;
+
+	private int num_verts;
+	private float[] initial_accelerations;
+	private float[] first_guess_positions;
+	private float[] first_guess_accelerations;
+	private int[] prev_contacts = new int[SoftBodyState.MAX_CONTACTS_PER_VERTEX];
+	private CollisionBatch collision_batch;
+	private ParallelSpringForces parallel_spring_forces;
+
+	public PhysicsWorkspace(int num_verts) {
+		this(num_verts, 1);
+	}
+
+	public PhysicsWorkspace(int num_verts, int num_threads) {
+		this.num_verts = num_verts;
+		initial_accelerations = new float[num_verts*3];
+		first_guess_positions = new float[num_verts*3];
+		first_guess_accelerations = new float[num_verts*3];
+		collision_batch = new CollisionBatch(num_verts, num_threads);
+
+		if (num_threads > 1) {
+			parallel_spring_forces = new ParallelSpringForces(num_verts, num_threads);
+		}
+	}
+
+	/**
+	 * Getters
+	 */
+	public int getNumVerts() {
+		return num_verts;
+	}
+	public float[] getInitialAccelerations() {
+		return initial_accelerations;
+	}
+	public float[] getFirstGuessPositions() {
+		return first_guess_positions;
+	}
+	public float[] getFirstGuessAccelerations() {
+		return first_guess_accelerations;
+	}
+	public int[] getPrevContacts() {
+		return prev_contacts;
+	}
+	public CollisionBatch getCollisionBatch() {
+		return collision_batch;
+	}
+	public ParallelSpringForces getParallelSpringForces() {
+		return parallel_spring_forces;
+	}
+}
@@ -0,0 +1,185 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Stores the simulated state of a soft body in flat arrays so the physics
+ * loops can walk contiguous memory instead of chasing Vertex objects.
+ * Every vertex i occupies the 3 floats starting at i*3 in the position,
+ * velocity and previous position arrays.
+ */
+public class SoftBodyState {
+
+	public static final int MAX_CONTACTS_PER_VERTEX = 16;
+
+	private int num_verts;
+	private float[] positions;
+	private float[] velocities;
+	private float[] prev_positions;
+	private float[] inverse_masses;
+
+//	The starting indices of the faces each vertex is colliding with. Vertex i owns the
+//	slots starting at i*MAX_CONTACTS_PER_VERTEX, and 'contact_counts' stores how many are used.
+	private int[] contact_face_indices;
+	private int[] contact_counts;
+
+//	The contacts of the vertex cleared last are checked for duplicates with a stamp per face
+//	instead of a search through its slots. A face is already a contact of that vertex when its
+//	stamp equals 'contact_stamp', which changes every time a vertex is cleared.
+	private int[] face_stamps = new int[0];
+	private int contact_stamp = 0;
+	private int stamped_vertex = -1;
+
+	public SoftBodyState(int num_verts) {
+		this.num_verts = num_verts;
+		positions = new float[num_verts*3];
+		velocities = new float[num_verts*3];
+		prev_positions = new float[num_verts*3];
+		inverse_masses = new float[num_verts];
+		contact_face_indices = new int[num_verts*MAX_CONTACTS_PER_VERTEX];
+		contact_counts = new int[num_verts];
+	}
+
+	public SoftBodyState(ArrayList<Vertex> verts) {
+		this(verts.size());
+
+		for (int i = 0; i < num_verts; i++) {
+			inverse_masses[i] = 1f/verts.get(i).getMass();
+		}
+		load(verts);
+	}
+
+	/**
+	 * Copies the position, velocity and previous position of the given vertices
+	 * into the state. The collision contacts are left untouched.
+	 * @param verts
+	 */
+	public void load(ArrayList<Vertex> verts) {
+		for (int i = 0; i < num_verts; i++) {
+			Vertex v = verts.get(i);
+			Point3f position = v.getPosition();
+			Point3f prev_position = v.getPrevPosition();
+			Vector3f velocity = v.getVelocity();
+
+			positions[i*3] = position.x;
+			positions[i*3 + 1] = position.y;
+			positions[i*3 + 2] = position.z;
+			velocities[i*3] = velocity.x;
+			velocities[i*3 + 1] = velocity.y;
+			velocities[i*3 + 2] = velocity.z;
+			prev_positions[i*3] = prev_position.x;
+			prev_positions[i*3 + 1] = prev_position.y;
+			prev_positions[i*3 + 2] = prev_position.z;
+		}
+	}
+
+	/**
+	 * Copies the position, velocity and previous position of each vertex in the
+	 * state back into the given vertices so they can be drawn.
+	 * @param verts
+	 */
+	public void store(ArrayList<Vertex> verts) {
+		for (int i = 0; i < num_verts; i++) {
+			Vertex v = verts.get(i);
+			Point3f position = v.getPosition();
+			Vector3f velocity = v.getVelocity();
+
+//			A new vertex shares its position with its previous position, so give it its
+//			own point before writing to it.
+			if (v.getPrevPosition() == position) {
+				v.setPrevPosition(new Point3f());
+			}
+			Point3f prev_position = v.getPrevPosition();
+
+			position.set(positions[i*3], positions[i*3 + 1], positions[i*3 + 2]);
+			velocity.set(velocities[i*3], velocities[i*3 + 1], velocities[i*3 + 2]);
+			prev_position.set(prev_positions[i*3], prev_positions[i*3 + 1], prev_positions[i*3 + 2]);
+		}
+	}
+
+	/**
+	 * Adds the given face to the faces the vertex is colliding with, unless it is
+	 * already there or the vertex has no free contact slots left. Adding to the vertex
+	 * that was cleared last takes constant time. Any other vertex has its slots searched.
+	 * @param vertex_index
+	 * @param face_index
+	 * @return Whether or not the face was added.
+	 */
+	public boolean addContact(int vertex_index, int face_index) {
+		int start = vertex_index*MAX_CONTACTS_PER_VERTEX;
+		int count = contact_counts[vertex_index];
+		int face = face_index/3;
+
+		if (vertex_index == stamped_vertex) {
+			if (face < face_stamps.length && face_stamps[face] == contact_stamp) {
+				return false;
+			}
+		}
+		else {
+			for (int i = 0; i < count; i++) {
+				if (contact_face_indices[start + i] == face_index) {
+					return false;
+				}
+			}
+		}
+		if (count == MAX_CONTACTS_PER_VERTEX) {
+			return false;
+		}
+
+		if (vertex_index == stamped_vertex) {
+//			The stamps grow to fit the faces of the collision environment the first
+//			few times they are hit, and are not allocated again after that.
+			if (face >= face_stamps.length) {
+				face_stamps = Arrays.copyOf(face_stamps, Math.max(face + 1, face_stamps.length*2));
+			}
+			face_stamps[face] = contact_stamp;
+		}
+		contact_face_indices[start + count] = face_index;
+		contact_counts[vertex_index] = count + 1;
+		return true;
+	}
+
+	/**
+	 * Removes all the contacts of the vertex, and starts a new set of stamps for it so
+	 * the contacts added next are checked for duplicates in constant time.
+	 * @param vertex_index
+	 */
+	public void clearContacts(int vertex_index) {
+		contact_counts[vertex_index] = 0;
+		stamped_vertex = vertex_index;
+		contact_stamp++;
+
+//		Once the stamp wraps around, old stamps could match it again.
+		if (contact_stamp == 0) {
+			Arrays.fill(face_stamps, 0);
+			contact_stamp = 1;
+		}
+	}
+
+	/**
+	 * Getters
+	 */
+	public int getNumVerts() {
+		return num_verts;
+	}
+	public float[] getPositions() {
+		return positions;
+	}
+	public float[] getVelocities() {
+		return velocities;
+	}
+	public float[] getPrevPositions() {
+		return prev_positions;
+	}
+	public float[] getInverseMasses() {
+		return inverse_masses;
+	}
+	public int getContactCount(int vertex_index) {
+		return contact_counts[vertex_index];
+	}
+	public int getContactFaceIndex(int vertex_index, int contact) {
+		return contact_face_indices[vertex_index*MAX_CONTACTS_PER_VERTEX + contact];
+	}
+}
@@ -0,0 +1,363 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.vecmath.Point3f;
+
+/**
+ * Stores the springs of a soft body in flat arrays. Spring i connects the vertices
+ * stored at endpoints[i*2] and endpoints[i*2 + 1], and has the equilibrium length
+ * and spring constant stored at index i. A network can't be changed once it is built,
+ * so it is safe to share between objects with the same mesh.
+ */
+public class SpringNetwork {
+
+//	The support springs of jello objects, see createJelloSprings. Set with
+//	-Djello.springs.support_modulus, -Djello.springs.support_neighbours and
+//	-Djello.springs.support_radius.
+	public static final int SUPPORT_SPRING_MODULUS = Integer.parseInt(System.getProperty("jello.springs.support_modulus", "1"));
+	public static final int SUPPORT_SPRING_NEIGHBOURS = Integer.parseInt(System.getProperty("jello.springs.support_neighbours", "0"));
+	public static final float SUPPORT_SPRING_RADIUS = Float.parseFloat(System.getProperty("jello.springs.support_radius", "0"));
+
+	private int num_verts;
+	private int num_springs;
+	private int[] endpoints;
+	private float[] equilibrium_lengths;
+	private float[] spring_constants;
+
+//	Optional compressed adjacency. The springs attached to vertex i are stored in
+//	'adjacent_springs' from adjacency_offsets[i] up to adjacency_offsets[i + 1].
+	private int[] adjacency_offsets;
+	private int[] adjacent_springs;
+
+	private SpringNetwork(int num_verts, int num_springs, int[] endpoints, float[] equilibrium_lengths, float[] spring_constants) {
+		this.num_verts = num_verts;
+		this.num_springs = num_springs;
+		this.endpoints = endpoints;
+		this.equilibrium_lengths = equilibrium_lengths;
+		this.spring_constants = spring_constants;
+	}
+
+	/**
+	 * Creates the springs for a jello mesh. There is a spring along each edge of the faces,
+	 * and some support springs inside the object.
+	 * @param object_verts
+	 * @param object_faces
+	 * @param spring_constant
+	 * @param support_spring_modulus Every nth vertice will have a support spring to every vertice.
+	 * Only used when 'support_spring_neighbours' and 'support_spring_radius' are both zero.
+	 * @param support_spring_neighbours The number of nearest neighbours to link each vertex to.
+	 * @param support_spring_radius The maximum length of a support spring to a nearest neighbour.
+	 * @return
+	 */
+	public static SpringNetwork createJelloSprings(ArrayList<Vertex> object_verts, 
+												ArrayList<Integer> object_faces, 
+												float spring_constant, 
+												int support_spring_modulus, 
+												int support_spring_neighbours, 
+												float support_spring_radius) {
+		
+//		Add a spring along each edge of the faces. The builder ignores edges that 
+//		already have a spring, since most edges are shared by 2 faces.
+		Builder builder = new Builder(object_verts);
+		for (int i = 0; i < object_faces.size(); i += 3) {
+			int v0 = object_faces.get(i);
+			int v1 = object_faces.get(i+1);
+			int v2 = object_faces.get(i+2);
+			
+			builder.addSpring(v0, v1, spring_constant);
+			builder.addSpring(v0, v2, spring_constant);
+			builder.addSpring(v1, v2, spring_constant);
+		}
+		
+//		Add some support springs inside the object.
+		if (support_spring_neighbours > 0 || support_spring_radius > 0) {
+			SupportSprings.addSupportSprings(builder, object_verts, support_spring_neighbours, support_spring_radius, spring_constant);
+		}
+		else {
+			for (int i = 0; i < object_verts.size(); i++) {
+				for (int j = 0; j < object_verts.size(); j++) {
+					if (j % support_spring_modulus == 0) {
+						builder.addSpring(i, j, spring_constant);
+					}
+				}
+			}
+		}
+		
+		SpringNetwork network = builder.build();
+		return VertexOrder.isEnabled() ? network.sortByEndpoint() : network;
+	}
+
+	/**
+	 * Creates a network with the given springs, like ones saved in a binary mesh. The
+	 * equilibrium length of each spring is the distance between its vertices, the same
+	 * as the builder would give it.
+	 * @param object_verts
+	 * @param num_springs
+	 * @param endpoints
+	 * @param spring_constants
+	 * @return
+	 */
+	public static SpringNetwork createSprings(ArrayList<Vertex> object_verts, int num_springs, int[] endpoints, float[] spring_constants) {
+		float[] equilibrium_lengths = new float[num_springs];
+		for (int i = 0; i < num_springs; i++) {
+			Point3f p0 = object_verts.get(endpoints[i*2]).getPosition();
+			Point3f p1 = object_verts.get(endpoints[i*2 + 1]).getPosition();
+			equilibrium_lengths[i] = p0.distance(p1);
+		}
+		SpringNetwork network = new SpringNetwork(object_verts.size(), 
+												num_springs, 
+												Arrays.copyOf(endpoints, num_springs*2), 
+												equilibrium_lengths, 
+												Arrays.copyOf(spring_constants, num_springs));
+		return VertexOrder.isEnabled() ? network.sortByEndpoint() : network;
+	}
+
+	/**
+	 * Returns a copy of the network with the springs sorted by their lower endpoint, then
+	 * by their higher endpoint. Once the vertices are in an order that keeps neighbours
+	 * close, the force loop then walks through the vertices mostly in order. Each spring
+	 * keeps the direction of its endpoints, so it adds the same forces as before.
+	 * @return
+	 */
+	public SpringNetwork sortByEndpoint() {
+		
+//		Sort by the higher endpoint first, then by the lower one. Each pass keeps the order of
+//		the springs that share an endpoint, so together they sort by both.
+		int[] sorted = new int[num_springs];
+		for (int i = 0; i < num_springs; i++) {
+			sorted[i] = i;
+		}
+		sorted = bucketByEndpoint(sorted, false);
+		sorted = bucketByEndpoint(sorted, true);
+		
+		int[] sorted_endpoints = new int[num_springs*2];
+		float[] sorted_lengths = new float[num_springs];
+		float[] sorted_constants = new float[num_springs];
+		for (int i = 0; i < num_springs; i++) {
+			sorted_endpoints[i*2] = endpoints[sorted[i]*2];
+			sorted_endpoints[i*2 + 1] = endpoints[sorted[i]*2 + 1];
+			sorted_lengths[i] = equilibrium_lengths[sorted[i]];
+			sorted_constants[i] = spring_constants[sorted[i]];
+		}
+		SpringNetwork network = new SpringNetwork(num_verts, num_springs, sorted_endpoints, sorted_lengths, sorted_constants);
+		if (hasAdjacency()) {
+			network.computeAdjacency();
+		}
+		return network;
+	}
+
+	/**
+	 * Returns the given springs sorted by their lower or higher endpoint, with a counting
+	 * sort over the vertices. Springs with the same endpoint keep their order.
+	 * @param springs
+	 * @param lower Whether to sort by the lower endpoint instead of the higher one.
+	 * @return
+	 */
+	private int[] bucketByEndpoint(int[] springs, boolean lower) {
+		int[] bucket_starts = new int[num_verts + 1];
+		for (int spring : springs) {
+			bucket_starts[getEndpoint(spring, lower) + 1]++;
+		}
+		for (int i = 0; i < num_verts; i++) {
+			bucket_starts[i + 1] += bucket_starts[i];
+		}
+		int[] sorted = new int[springs.length];
+		for (int spring : springs) {
+			sorted[bucket_starts[getEndpoint(spring, lower)]++] = spring;
+		}
+		return sorted;
+	}
+
+	private int getEndpoint(int spring, boolean lower) {
+		int a = endpoints[spring*2];
+		int b = endpoints[spring*2 + 1];
+		return lower ? Math.min(a, b) : Math.max(a, b);
+	}
+
+	/**
+	 * Computes the springs attached to each vertex.
+	 */
+	private void computeAdjacency() {
+		adjacency_offsets = new int[num_verts + 1];
+		adjacent_springs = new int[num_springs*2];
+
+//		Count the springs attached to each vertex and turn the counts into offsets.
+		for (int i = 0; i < num_springs*2; i++) {
+			adjacency_offsets[endpoints[i] + 1]++;
+		}
+		for (int i = 0; i < num_verts; i++) {
+			adjacency_offsets[i + 1] += adjacency_offsets[i];
+		}
+
+//		Fill in the springs for each vertex.
+		int[] next = Arrays.copyOf(adjacency_offsets, num_verts);
+		for (int i = 0; i < num_springs; i++) {
+			adjacent_springs[next[endpoints[i*2]]++] = i;
+			adjacent_springs[next[endpoints[i*2 + 1]]++] = i;
+		}
+	}
+
+	/**
+	 * Getters
+	 */
+	public int getNumVerts() {
+		return num_verts;
+	}
+	public int getNumSprings() {
+		return num_springs;
+	}
+	public int[] getEndpoints() {
+		return endpoints;
+	}
+	public float[] getEquilibriumLengths() {
+		return equilibrium_lengths;
+	}
+	public float[] getSpringConstants() {
+		return spring_constants;
+	}
+	public boolean hasAdjacency() {
+		return adjacency_offsets != null;
+	}
+	public int[] getAdjacencyOffsets() {
+		return adjacency_offsets;
+	}
+	public int[] getAdjacentSprings() {
+		return adjacent_springs;
+	}
+
+
+	/**
+	 * Collects the springs of a network. Duplicate springs between the same 2 vertices
+	 * are ignored, and the equilibrium length of each spring is the distance between
+	 * its vertices at the time it is added.
+	 */
+	public static class Builder {
+
+		private ArrayList<Vertex> verts;
+		private int num_springs = 0;
+		private int[] endpoints = new int[64];
+		private float[] equilibrium_lengths = new float[32];
+		private float[] spring_constants = new float[32];
+
+//		Open addressing hash set of the keys of the springs added so far.
+//		A key of -1 marks an empty slot.
+		private long[] keys = new long[64];
+
+		public Builder(ArrayList<Vertex> verts) {
+			this.verts = verts;
+			Arrays.fill(keys, -1L);
+		}
+
+		/**
+		 * Adds a spring between the given vertices if there isn't one already.
+		 * @param v0
+		 * @param v1
+		 * @param spring_constant
+		 * @return Whether or not the spring was added.
+		 */
+		public boolean addSpring(int v0, int v1, float spring_constant) {
+			if (v0 == v1 || !insertKey(getKey(v0, v1))) {
+				return false;
+			}
+
+			if (num_springs == spring_constants.length) {
+				endpoints = Arrays.copyOf(endpoints, endpoints.length*2);
+				equilibrium_lengths = Arrays.copyOf(equilibrium_lengths, equilibrium_lengths.length*2);
+				spring_constants = Arrays.copyOf(spring_constants, spring_constants.length*2);
+			}
+
+			Point3f p0 = verts.get(v0).getPosition();
+			Point3f p1 = verts.get(v1).getPosition();
+			endpoints[num_springs*2] = v0;
+			endpoints[num_springs*2 + 1] = v1;
+			equilibrium_lengths[num_springs] = p0.distance(p1);
+			spring_constants[num_springs] = spring_constant;
+			num_springs++;
+
+			return true;
+		}
+
+		public boolean containsSpring(int v0, int v1) {
+			long key = getKey(v0, v1);
+			for (int slot = hashKey(key); keys[slot] != -1L; slot = (slot + 1) & (keys.length - 1)) {
+				if (keys[slot] == key) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public int getNumSprings() {
+			return num_springs;
+		}
+
+		/**
+		 * Builds the network without the per vertex adjacency.
+		 * @return
+		 */
+		public SpringNetwork build() {
+			return build(false);
+		}
+
+		/**
+		 * Builds the network.
+		 * @param compute_adjacency Whether or not to compute the springs attached to each vertex.
+		 * @return
+		 */
+		public SpringNetwork build(boolean compute_adjacency) {
+			SpringNetwork network = new SpringNetwork(verts.size(),
+													num_springs,
+													Arrays.copyOf(endpoints, num_springs*2),
+													Arrays.copyOf(equilibrium_lengths, num_springs),
+													Arrays.copyOf(spring_constants, num_springs));
+			if (compute_adjacency) {
+				network.computeAdjacency();
+			}
+			return network;
+		}
+
+		/**
+		 * The key of a spring doesn't depend on the order of its vertices. It is a long
+		 * so it doesn't overflow on big meshes.
+		 */
+		private long getKey(int v0, int v1) {
+			return (v0 < v1) ? (long) v0*verts.size() + v1 : (long) v1*verts.size() + v0;
+		}
+
+		private int hashKey(long key) {
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int) (hash >>> 32) & (keys.length - 1);
+		}
+
+		/**
+		 * Adds the key to the set of keys.
+		 * @return Whether or not the key was added.
+		 */
+		private boolean insertKey(long key) {
+			if (num_springs*2 >= keys.length) {
+				long[] old_keys = keys;
+				keys = new long[old_keys.length*2];
+				Arrays.fill(keys, -1L);
+				for (long old_key : old_keys) {
+					if (old_key != -1L) {
+						int slot = hashKey(old_key);
+						while (keys[slot] != -1L) {
+							slot = (slot + 1) & (keys.length - 1);
+						}
+						keys[slot] = old_key;
+					}
+				}
+			}
+
+			int slot = hashKey(key);
+			while (keys[slot] != -1L) {
+				if (keys[slot] == key) {
+					return false;
+				}
+				slot = (slot + 1) & (keys.length - 1);
+			}
+			keys[slot] = key;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.vecmath.Point3f;
+
+/**
+ * Adds support springs between each vertex and the vertices closest to it, instead of
+ * between every pair of vertices. The vertices are sorted into a uniform grid so the
+ * neighbours of a vertex can be found by only looking at the cells around it.
+ */
+public class SupportSprings {
+
+//	The grid is never allowed to have more than this many cells per vertex.
+	private static final int MAX_CELLS_PER_VERTEX = 4;
+
+	private ArrayList<Vertex> verts;
+	private float min_x, min_y, min_z;
+	private float cell_size;
+	private int num_cells_x, num_cells_y, num_cells_z;
+
+//	The vertices in cell i are stored in 'cell_verts' from cell_offsets[i] up to cell_offsets[i + 1].
+	private int[] cell_offsets;
+	private int[] cell_verts;
+
+	/**
+	 * Adds a support spring from each vertex to its nearest neighbours.
+	 * @param builder The builder to add the springs to.
+	 * @param verts The vertices of the object.
+	 * @param num_neighbours The number of neighbours to link each vertex to. If this is zero or
+	 * less, each vertex is linked to every vertex within the radius.
+	 * @param radius The maximum length of a support spring. If this is zero or less the length
+	 * is not limited, and 'num_neighbours' must be positive.
+	 * @param spring_constant
+	 */
+	public static void addSupportSprings(SpringNetwork.Builder builder, ArrayList<Vertex> verts, int num_neighbours, float radius, float spring_constant) {
+		if (verts.size() < 2 || (num_neighbours <= 0 && radius <= 0)) {
+			return;
+		}
+
+		SupportSprings grid = new SupportSprings(verts, num_neighbours, radius);
+
+		int max_neighbours = num_neighbours > 0 ? num_neighbours : verts.size();
+		int[] neighbours = new int[Math.min(max_neighbours, verts.size())];
+		float[] neighbour_distances = new float[neighbours.length];
+
+		for (int i = 0; i < verts.size(); i++) {
+			int num_found = grid.findNeighbours(i, max_neighbours, radius, neighbours, neighbour_distances);
+			for (int j = 0; j < num_found; j++) {
+				builder.addSpring(i, neighbours[j], spring_constant);
+			}
+		}
+	}
+
+	private SupportSprings(ArrayList<Vertex> verts, int num_neighbours, float radius) {
+		this.verts = verts;
+
+//		Find the bounding box of the vertices.
+		float max_x, max_y, max_z;
+		Point3f first = verts.get(0).getPosition();
+		min_x = max_x = first.x;
+		min_y = max_y = first.y;
+		min_z = max_z = first.z;
+		for (Vertex v : verts) {
+			Point3f position = v.getPosition();
+			min_x = Math.min(min_x, position.x);
+			min_y = Math.min(min_y, position.y);
+			min_z = Math.min(min_z, position.z);
+			max_x = Math.max(max_x, position.x);
+			max_y = Math.max(max_y, position.y);
+			max_z = Math.max(max_z, position.z);
+		}
+
+//		Use the radius as the cell size so a radius search only has to look at the neighbouring
+//		cells. Otherwise pick a cell size that puts about 'num_neighbours' vertices in each cell.
+		float max_extent = Math.max(max_x - min_x, Math.max(max_y - min_y, max_z - min_z));
+		float min_extent = Math.max(max_extent*1e-3f, 1e-6f);
+		float extent_x = Math.max(max_x - min_x, min_extent);
+		float extent_y = Math.max(max_y - min_y, min_extent);
+		float extent_z = Math.max(max_z - min_z, min_extent);
+		if (radius > 0) {
+			cell_size = radius;
+		}
+		else {
+			double volume_per_cell = (double) extent_x*extent_y*extent_z*num_neighbours/verts.size();
+			cell_size = (float) Math.cbrt(volume_per_cell);
+		}
+
+//		Grow the cells until there aren't too many of them.
+		long max_cells = (long) verts.size()*MAX_CELLS_PER_VERTEX;
+		while (true) {
+			num_cells_x = (int) (extent_x/cell_size) + 1;
+			num_cells_y = (int) (extent_y/cell_size) + 1;
+			num_cells_z = (int) (extent_z/cell_size) + 1;
+			if ((long) num_cells_x*num_cells_y*num_cells_z <= max_cells) {
+				break;
+			}
+			cell_size *= 1.5f;
+		}
+
+//		Sort the vertices into the cells.
+		int num_cells = num_cells_x*num_cells_y*num_cells_z;
+		int[] vert_cells = new int[verts.size()];
+		cell_offsets = new int[num_cells + 1];
+		for (int i = 0; i < verts.size(); i++) {
+			Point3f position = verts.get(i).getPosition();
+			vert_cells[i] = getCellIndex(getCell(position.x, min_x, num_cells_x),
+										getCell(position.y, min_y, num_cells_y),
+										getCell(position.z, min_z, num_cells_z));
+			cell_offsets[vert_cells[i] + 1]++;
+		}
+		for (int i = 0; i < num_cells; i++) {
+			cell_offsets[i + 1] += cell_offsets[i];
+		}
+		cell_verts = new int[verts.size()];
+		int[] next = Arrays.copyOf(cell_offsets, num_cells);
+		for (int i = 0; i < verts.size(); i++) {
+			cell_verts[next[vert_cells[i]]++] = i;
+		}
+	}
+
+	/**
+	 * Finds the closest vertices to the given vertex.
+	 * @param vertex_index
+	 * @param max_neighbours The maximum number of vertices to find.
+	 * @param radius The maximum distance to a neighbour, or zero or less for no limit.
+	 * @param neighbours Filled with the indices of the neighbours, closest first.
+	 * @param neighbour_distances Filled with the distances to the neighbours.
+	 * @return The number of neighbours found.
+	 */
+	private int findNeighbours(int vertex_index, int max_neighbours, float radius, int[] neighbours, float[] neighbour_distances) {
+		Point3f position = verts.get(vertex_index).getPosition();
+		int cell_x = getCell(position.x, min_x, num_cells_x);
+		int cell_y = getCell(position.y, min_y, num_cells_y);
+		int cell_z = getCell(position.z, min_z, num_cells_z);
+		int max_ring = Math.max(num_cells_x, Math.max(num_cells_y, num_cells_z));
+		int num_found = 0;
+
+//		Search rings of cells around the vertex's cell. Everything outside ring r is at least
+//		r cells away, so the search can stop once the closest vertices found are closer than that.
+		for (int ring = 0; ring <= max_ring; ring++) {
+			float ring_distance = (ring - 1)*cell_size;
+			if (radius > 0 && ring_distance > radius) {
+				break;
+			}
+			if (num_found == max_neighbours && ring_distance > neighbour_distances[num_found - 1]) {
+				break;
+			}
+
+			for (int x = cell_x - ring; x <= cell_x + ring; x++) {
+				for (int y = cell_y - ring; y <= cell_y + ring; y++) {
+					for (int z = cell_z - ring; z <= cell_z + ring; z++) {
+
+//						Only visit the cells on the outside of the ring.
+						if (Math.abs(x - cell_x) != ring && Math.abs(y - cell_y) != ring && Math.abs(z - cell_z) != ring) {
+							continue;
+						}
+						if (x < 0 || y < 0 || z < 0 || x >= num_cells_x || y >= num_cells_y || z >= num_cells_z) {
+							continue;
+						}
+
+						int cell_index = getCellIndex(x, y, z);
+						for (int i = cell_offsets[cell_index]; i < cell_offsets[cell_index + 1]; i++) {
+							int other = cell_verts[i];
+							if (other == vertex_index) {
+								continue;
+							}
+
+							float distance = position.distance(verts.get(other).getPosition());
+							if (radius > 0 && distance > radius) {
+								continue;
+							}
+							num_found = insertNeighbour(other, distance, max_neighbours, num_found, neighbours, neighbour_distances);
+						}
+					}
+				}
+			}
+		}
+
+		return num_found;
+	}
+
+	/**
+	 * Inserts the vertex into the sorted list of neighbours if it is closer than the
+	 * furthest one. Ties are broken by the vertex index so the result doesn't depend on
+	 * the order the cells are visited in.
+	 * @return The new number of neighbours.
+	 */
+	private static int insertNeighbour(int vertex_index, float distance, int max_neighbours, int num_found, int[] neighbours, float[] neighbour_distances) {
+		int position = num_found;
+		while (position > 0 &&
+			  (neighbour_distances[position - 1] > distance ||
+			  (neighbour_distances[position - 1] == distance && neighbours[position - 1] > vertex_index))) {
+			position--;
+		}
+		if (position == max_neighbours) {
+			return num_found;
+		}
+
+		int last = Math.min(num_found, max_neighbours - 1);
+		for (int i = last; i > position; i--) {
+			neighbours[i] = neighbours[i - 1];
+			neighbour_distances[i] = neighbour_distances[i - 1];
+		}
+		neighbours[position] = vertex_index;
+		neighbour_distances[position] = distance;
+
+		return Math.min(num_found + 1, max_neighbours);
+	}
+
+	private int getCell(float value, float min, int num_cells) {
+		int cell = (int) ((value - min)/cell_size);
+		return Math.max(0, Math.min(cell, num_cells - 1));
+	}
+
+	private int getCellIndex(int x, int y, int z) {
+		return (z*num_cells_y + y)*num_cells_x + x;
+	}
+}
@@ -0,0 +1,157 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Runs a batch of random tosses through the TossSimulator on all cores and prints
+ * how they turned out. The tosses are generated from a seed before any of them run,
+ * so the same arguments always give the same results.
+ */
+public class TossBatchRunner {
+	
+//	The same jello setup as the game.
+	private static float vertex_mass = .005f;
+	private static Vector3f jello_object_max_dimensions = new Vector3f(.2f, .2f, .2f);
+	private static Point3f startPoint = new Point3f(0f, 1f, -4f);
+	private static float object_spring_constant = 150;
+	
+//	The range of the random toss velocities, about what can be given with the mouse.
+	private static Vector3f min_toss_velocity = new Vector3f(-2f, -4f, 1f);
+	private static Vector3f max_toss_velocity = new Vector3f(2f, 0f, 9f);
+	
+	public static void printUsage() {
+		System.out.println("Usage: java TossBatchRunner jello1.obj,jello2.obj environment.obj goal_plane.obj [num_tosses] [num_threads] [seed]");
+		System.exit(1);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			printUsage();
+		}
+		String[] jelloObjectFilenamesArray = args[0].split(",");
+		String collisionEnvironmentFilename = args[1];
+		String goalPlaneFilename = args[2];
+		int num_tosses = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+		int num_threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		long seed = args.length > 5 ? Long.parseLong(args[5]) : 0;
+		
+//		Start loading the jello objects, the collision surface and the goal plane at once.
+//		The multiplier of each object is its position in the list, like in the game.
+//		Binary meshes saved with springs keep their springs.
+		long load_start_time = System.nanoTime();
+		AssetPipeline pipeline = new AssetPipeline();
+		ArrayList<CompletableFuture<Object>> jello_object_futures = new ArrayList<CompletableFuture<Object>>();
+		for (String input_filename : jelloObjectFilenamesArray) {
+			jello_object_futures.add(pipeline.loadJelloObject(input_filename, vertex_mass, jello_object_max_dimensions, startPoint)
+					.thenApply(new Function<Object, Object>() {
+						public Object apply(Object jello_object) {
+							if (jello_object.getSpringNetwork() == null) {
+								jello_object.setSpringNetwork(SpringNetwork.createJelloSprings(jello_object.getVerts(), jello_object.getFaces(), object_spring_constant, 
+										SpringNetwork.SUPPORT_SPRING_MODULUS, SpringNetwork.SUPPORT_SPRING_NEIGHBOURS, SpringNetwork.SUPPORT_SPRING_RADIUS));
+							}
+							return jello_object;
+						}
+					}));
+		}
+		CompletableFuture<Object> collision_environment_future = pipeline.loadObject(collisionEnvironmentFilename, vertex_mass);
+		CompletableFuture<CollisionStructure> collision_tree_future = pipeline.loadCollisionStructure(collisionEnvironmentFilename, collision_environment_future, DistanceField.ENABLED);
+		CompletableFuture<Object> goal_plane_future = pipeline.loadObject(goalPlaneFilename, vertex_mass);
+		CompletableFuture<CollisionStructure> goal_plane_collision_tree_future = pipeline.loadCollisionStructure(goalPlaneFilename, goal_plane_future, false);
+		
+//		Wait for everything, and set up the simulator.
+		final ArrayList<Object> jello_objects = new ArrayList<Object>();
+		for (CompletableFuture<Object> jello_object_future : jello_object_futures) {
+			jello_objects.add(jello_object_future.join());
+		}
+		CollisionStructure collision_tree = collision_tree_future.join();
+		CollisionStructure goal_plane_collision_tree = goal_plane_collision_tree_future.join();
+		System.out.println("Loaded the assets in " + (System.nanoTime() - load_start_time)/1e6f + " ms.");
+		if (DistanceField.ENABLED) {
+			System.out.println("Distance field voxels: " + Arrays.toString(collision_tree.getDistanceField().getNumVoxels()));
+		}
+		if (collision_tree instanceof CollisionTree) {
+			System.out.println("Collision tree faces per level: " + ((CollisionTree) collision_tree).getFaceCountsPerLevel());
+		}
+		if (collision_tree instanceof CollisionGrid) {
+			CollisionGrid grid = (CollisionGrid) collision_tree;
+			System.out.println("Collision grid cell size: " + grid.getCellSize() + ", cells: " + Arrays.toString(grid.getNumCells()) + 
+							", buckets: " + grid.getNumBuckets());
+		}
+		
+		ArrayList<Point3f> goal_point_locations = new ArrayList<Point3f>();
+		ArrayList<Integer> goal_points = new ArrayList<Integer>();
+		TossSimulator.addDefaultGoals(goal_point_locations, goal_points);
+		final TossSimulator simulator = new TossSimulator(collision_tree, goal_plane_collision_tree, goal_point_locations, goal_points);
+		
+//		Generate the tosses.
+		Random r = new Random(seed);
+		final int[] toss_objects = new int[num_tosses];
+		final Vector3f[] toss_velocities = new Vector3f[num_tosses];
+		for (int i = 0; i < num_tosses; i++) {
+			toss_objects[i] = r.nextInt(jello_objects.size());
+			toss_velocities[i] = new Vector3f(min_toss_velocity.x + r.nextFloat()*(max_toss_velocity.x - min_toss_velocity.x), 
+											min_toss_velocity.y + r.nextFloat()*(max_toss_velocity.y - min_toss_velocity.y), 
+											min_toss_velocity.z + r.nextFloat()*(max_toss_velocity.z - min_toss_velocity.z));
+		}
+		
+//		Run the tosses.
+		long start_time = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(num_threads);
+		ArrayList<Future<TossResult>> futures = new ArrayList<Future<TossResult>>();
+		for (int i = 0; i < num_tosses; i++) {
+			final int toss = i;
+			futures.add(executor.submit(new Callable<TossResult>() {
+				public TossResult call() {
+					return simulator.simulate(jello_objects.get(toss_objects[toss]), toss_objects[toss] + 1, toss_velocities[toss]);
+				}
+			}));
+		}
+		TossResult[] results = new TossResult[num_tosses];
+		for (int i = 0; i < num_tosses; i++) {
+			results[i] = futures.get(i).get();
+		}
+		executor.shutdown();
+		float elapsed_seconds = (System.nanoTime() - start_time)/1e9f;
+		
+//		Print the results for each jello object and each goal.
+		System.out.println("Simulated " + num_tosses + " tosses on " + num_threads + " threads in " + elapsed_seconds + 
+						" seconds (" + num_tosses/elapsed_seconds + " tosses/second).");
+		
+		for (int i = 0; i < jello_objects.size(); i++) {
+			int cur_tosses = 0, cur_goals = 0, cur_score = 0;
+			float cur_time_to_score = 0;
+			for (int j = 0; j < num_tosses; j++) {
+				if (toss_objects[j] == i) {
+					cur_tosses++;
+					if (results[j].isScored()) {
+						cur_goals++;
+						cur_score += results[j].getPoints();
+						cur_time_to_score += results[j].getTimeSeconds();
+					}
+				}
+			}
+			System.out.println(jelloObjectFilenamesArray[i] + ": " + cur_tosses + " tosses, " + cur_goals + " goals, " +
+							"average score " + (cur_tosses > 0 ? cur_score/(float)cur_tosses : 0) + ", " +
+							"average time to score " + (cur_goals > 0 ? cur_time_to_score/cur_goals : 0) + " seconds");
+		}
+		
+		int[] goal_counts = new int[simulator.getNumGoals()];
+		for (TossResult result : results) {
+			if (result.isScored()) {
+				goal_counts[result.getGoalIndex()]++;
+			}
+		}
+		for (int i = 0; i < goal_counts.length; i++) {
+			System.out.println("Goal " + i + " (" + goal_points.get(i) + " points): " + goal_counts[i] + " hits");
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * The outcome of a single simulated toss.
+ */
+public class TossResult {
+	
+	private boolean scored;
+	private int goal_index;
+	private int points;
+	private int num_frames;
+	private float time_seconds;
+	
+	public TossResult(boolean scored, int goal_index, int points, int num_frames, float time_seconds) {
+		this.scored = scored;
+		this.goal_index = goal_index;
+		this.points = points;
+		this.num_frames = num_frames;
+		this.time_seconds = time_seconds;
+	}
+	
+	/**
+	 * Getters
+	 */
+	public boolean isScored() {
+		return scored;
+	}
+	public int getGoalIndex() {
+		return goal_index;
+	}
+	public int getPoints() {
+		return points;
+	}
+	public int getNumFrames() {
+		return num_frames;
+	}
+	public float getTimeSeconds() {
+		return time_seconds;
+	}
+}
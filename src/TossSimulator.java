@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Simulates tosses of a jello object without a window or an OpenGL context, as fast 
+ * as the physics can run. It steps the physics and checks for goals the same way the 
+ * game does every frame, but doesn't wait for the next frame. The environment is only
+ * read, so one simulator can be used from several threads at once.
+ */
+public class TossSimulator {
+	
+	private CollisionStructure collision_tree;
+	private CollisionStructure goal_plane_collision_tree;
+	private ArrayList<Point3f> goal_point_locations;
+	private ArrayList<Integer> goal_points;
+	
+//	Physics and game parameters. These match the defaults of the game.
+	private float collision_spring_constant = 500;
+	private Vector3f gravity = new Vector3f(0, -1f, 0);
+	private int num_physics_iterations_per_frame = 5;
+	private float physics_time_interval = .001f;
+	private float cushion_amount = .2f;
+	private int fps = 60;
+	private float max_time_per_toss_seconds = 3;
+	
+	public TossSimulator(CollisionStructure collision_tree, 
+						CollisionStructure goal_plane_collision_tree, 
+						ArrayList<Point3f> goal_point_locations, 
+						ArrayList<Integer> goal_points) {
+		this.collision_tree = collision_tree;
+		this.goal_plane_collision_tree = goal_plane_collision_tree;
+		this.goal_point_locations = goal_point_locations;
+		this.goal_points = goal_points;
+	}
+	
+	/**
+	 * Adds the locations of the goals on the skee ball map and the points for each goal.
+	 * @param goal_point_locations Used to determine which goal the jello went into.
+	 * @param goal_points Used to determine the amount of points awarded per goal.
+	 */
+	public static void addDefaultGoals(ArrayList<Point3f> goal_point_locations, ArrayList<Integer> goal_points) {
+		Point3f top_left = new Point3f(1f, 1.5f, .5f);
+		Point3f top_right = new Point3f(-1f, 1.5f, .5f);
+		Point3f top_middle = new Point3f(0f, 1.5f, .5f);
+		Point3f middle_left = new Point3f(-.3f, 1f, 0f);
+		Point3f middle_right = new Point3f(.3f, 1f, 0f);
+		Point3f bottom_right = new Point3f(-.6f, .3f, -.8f);
+		Point3f bottom_left = new Point3f(.6f, .3f, -.8f);
+		goal_point_locations.add(top_left);
+		goal_point_locations.add(top_right);
+		goal_point_locations.add(top_middle);
+		goal_point_locations.add(middle_left);
+		goal_point_locations.add(middle_right);
+		goal_point_locations.add(bottom_right);
+		goal_point_locations.add(bottom_left);
+		
+		goal_points.add(100);
+		goal_points.add(100);
+		goal_points.add(200);
+		goal_points.add(50);
+		goal_points.add(50);
+		goal_points.add(25);
+		goal_points.add(25);
+	}
+	
+	/**
+	 * Tosses a copy of the given jello object with the given velocity and simulates it 
+	 * until it scores or the time for the toss runs out.
+	 * @param jello_template The jello object to toss. It must have its springs set up, and is not changed.
+	 * @param multiplier The point multiplier for the jello object.
+	 * @param toss_velocity The velocity given to every vertex of the jello at the start of the toss.
+	 * @return
+	 */
+	public TossResult simulate(Object jello_template, int multiplier, Vector3f toss_velocity) {
+		SoftBodyState state = new SoftBodyState(jello_template.getVerts());
+		PhysicsWorkspace workspace = new PhysicsWorkspace(state.getNumVerts());
+		int[] goal_hits = new int[1];
+		
+		float[] positions = state.getPositions();
+		float[] prev_positions = state.getPrevPositions();
+		float[] velocities = state.getVelocities();
+		for (int i = 0; i < state.getNumVerts(); i++) {
+			velocities[i*3] = toss_velocity.x;
+			velocities[i*3 + 1] = toss_velocity.y;
+			velocities[i*3 + 2] = toss_velocity.z;
+		}
+		
+		float time_left_in_toss_seconds = max_time_per_toss_seconds;
+		int num_frames = 0;
+		while (true) {
+			
+//			Check to see if the toss time is up.
+			time_left_in_toss_seconds -= 1f/(float)fps;
+			if (time_left_in_toss_seconds < 0) {
+				return new TossResult(false, -1, 0, num_frames, num_frames/(float)fps);
+			}
+			num_frames++;
+			
+			for (int i = 0; i < num_physics_iterations_per_frame; i++) {
+				Physics.computeRungeKutta(state, 
+						workspace, 
+						jello_template.getSpringNetwork(), 
+						collision_tree, 
+						collision_spring_constant, 
+						cushion_amount, 
+						gravity, 
+						physics_time_interval);
+			}
+			
+//			Check to see if a goal was scored, and find out which goal was scored in. The 
+//			vertices only need to be checked if the jello is near the goal plane.
+			if (!goal_plane_collision_tree.mayCollide(prev_positions, positions, state.getNumVerts(), cushion_amount)) {
+				continue;
+			}
+			for (int i = 0; i < state.getNumVerts(); i++) {
+				int num_hits = goal_plane_collision_tree.detectCollision(prev_positions[i*3], prev_positions[i*3 + 1], prev_positions[i*3 + 2], 
+																		positions[i*3], positions[i*3 + 1], positions[i*3 + 2], 
+																		cushion_amount, goal_hits, 0);
+				if (num_hits > 0) {
+					Point3f position = new Point3f(positions[i*3], positions[i*3 + 1], positions[i*3 + 2]);
+					int goal_index = findClosestGoal(position);
+					int points = goal_points.get(goal_index) * multiplier;
+					
+					return new TossResult(true, goal_index, points, num_frames, num_frames/(float)fps);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the index of the goal closest to the given position.
+	 * @param position
+	 * @return
+	 */
+	public int findClosestGoal(Point3f position) {
+		float min_dist = 99999f;
+		int min_index = 0;
+		
+		for (int i = 0; i < goal_points.size(); i++) {
+			float cur_dist = position.distance(goal_point_locations.get(i));
+			if (cur_dist < min_dist) {
+				min_dist = cur_dist;
+				min_index = i;
+			}
+		}
+		
+		return min_index;
+	}
+	
+	public int getNumGoals() {
+		return goal_points.size();
+	}
+	
+	/**
+	 * Setters
+	 */
+	public void setCollisionSpringConstant(float collision_spring_constant) {
+		this.collision_spring_constant = collision_spring_constant;
+	}
+	public void setGravity(Vector3f gravity) {
+		this.gravity = gravity;
+	}
+	public void setNumPhysicsIterationsPerFrame(int num_physics_iterations_per_frame) {
+		this.num_physics_iterations_per_frame = num_physics_iterations_per_frame;
+	}
+	public void setPhysicsTimeInterval(float physics_time_interval) {
+		this.physics_time_interval = physics_time_interval;
+	}
+	public void setCushionAmount(float cushion_amount) {
+		this.cushion_amount = cushion_amount;
+	}
+	public void setFps(int fps) {
+		this.fps = fps;
+	}
+	public void setMaxTimePerTossSeconds(float max_time_per_toss_seconds) {
+		this.max_time_per_toss_seconds = max_time_per_toss_seconds;
+	}
+}
@@ -1,5 +1,3 @@
-import java.util.ArrayList;
-
 import javax.vecmath.Point3f;
 import javax.vecmath.Vector3f;
 
@@ -14,7 +12,6 @@ public class Vertex {
 	private Vector3f velocity;
 	private boolean is_colliding;
 	private Plane collision_plane;
-	private ArrayList<Integer> collision_face_indices = new ArrayList<Integer>();
 	
 	public Vertex(Point3f position) {
 		this.position = position;
@@ -57,9 +54,6 @@ public class Vertex {
 	public Plane getCollisionPlane() {
 		return collision_plane;
 	}
-	public ArrayList<Integer> getCollisionFaceIndices() {
-		return collision_face_indices;
-	}
 	
 	/**
 	 * Setters
@@ -82,7 +76,4 @@ public class Vertex {
 	public void setCollisionPlane(Plane collision_plane) {
 		this.collision_plane = collision_plane;
 	}
-	public void setCollisionFaceIndices(ArrayList<Integer> collision_face_indices) {
-		this.collision_face_indices = collision_face_indices;
-	}
 }
\ No newline at end of file
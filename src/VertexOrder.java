@@ -0,0 +1,173 @@
+import java.util.Arrays;
+
+/**
+ * Computes orders of the vertices of a mesh that put vertices near each other in the mesh
+ * near each other in memory, so the springs and faces of a jello object touch fewer cache
+ * lines when they are stepped. An order is an array where order[i] is the vertex that
+ * becomes vertex i, see MeshData.reorder.
+ */
+public class VertexOrder {
+
+	public static final String NONE = "none";
+	public static final String MORTON = "morton";
+	public static final String CUTHILL_MCKEE = "rcm";
+
+//	The order the vertices of jello objects are put in when they are loaded, set with
+//	-Djello.mesh.vertex_order=<none|morton|rcm>.
+	public static final String DEFAULT_ORDER = System.getProperty("jello.mesh.vertex_order", NONE);
+
+	/**
+	 * Returns whether or not the vertices of jello objects are reordered when they are loaded.
+	 */
+	public static boolean isEnabled() {
+		return !DEFAULT_ORDER.equals(NONE);
+	}
+
+	/**
+	 * Computes the given type of order for the mesh.
+	 * @param type One of MORTON or CUTHILL_MCKEE.
+	 * @param mesh
+	 * @return
+	 */
+	public static int[] compute(String type, MeshData mesh) {
+		if (type.equals(MORTON)) {
+			return computeMortonOrder(mesh);
+		}
+		else if (type.equals(CUTHILL_MCKEE)) {
+			return computeCuthillMcKeeOrder(mesh);
+		}
+		throw new IllegalArgumentException("Unknown vertex order: " + type);
+	}
+
+	/**
+	 * Orders the vertices along a Morton curve through the box around them.
+	 * @param mesh
+	 * @return
+	 */
+	public static int[] computeMortonOrder(MeshData mesh) {
+		int num_verts = mesh.getNumVerts();
+		float[] positions = mesh.getPositions();
+		int[] order = new int[num_verts];
+		if (num_verts == 0) {
+			return order;
+		}
+
+		float min_x = positions[0], min_y = positions[1], min_z = positions[2];
+		float max_x = min_x, max_y = min_y, max_z = min_z;
+		for (int i = 1; i < num_verts; i++) {
+			min_x = Math.min(min_x, positions[i*3]);
+			min_y = Math.min(min_y, positions[i*3 + 1]);
+			min_z = Math.min(min_z, positions[i*3 + 2]);
+			max_x = Math.max(max_x, positions[i*3]);
+			max_y = Math.max(max_y, positions[i*3 + 1]);
+			max_z = Math.max(max_z, positions[i*3 + 2]);
+		}
+
+		float scale_x = MortonCode.getScale(min_x, max_x);
+		float scale_y = MortonCode.getScale(min_y, max_y);
+		float scale_z = MortonCode.getScale(min_z, max_z);
+
+//		Store the code in the top half of the key and the vertex in the bottom half, so
+//		sorting the keys sorts the vertices.
+		long[] keys = new long[num_verts];
+		for (int i = 0; i < num_verts; i++) {
+			int code = MortonCode.getCode((int) ((positions[i*3] - min_x)*scale_x),
+										(int) ((positions[i*3 + 1] - min_y)*scale_y),
+										(int) ((positions[i*3 + 2] - min_z)*scale_z));
+			keys[i] = ((long) code << 32) | i;
+		}
+		Arrays.sort(keys);
+		for (int i = 0; i < num_verts; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Orders the vertices with reverse Cuthill-McKee over the edges of the faces, which
+	 * are the edge springs of a jello object. Each connected part of the mesh is walked
+	 * breadth first from its vertex with the fewest neighbours, visiting the neighbours
+	 * of a vertex from the fewest neighbours up, and the whole order is then reversed.
+	 * This keeps the two ends of each edge close together in the order. The support
+	 * springs are left out, since with the default settings they link every vertex.
+	 * @param mesh
+	 * @return
+	 */
+	public static int[] computeCuthillMcKeeOrder(MeshData mesh) {
+		int num_verts = mesh.getNumVerts();
+		int[] faces = mesh.getFaces();
+		int num_edges = mesh.getNumFaces()*3;
+
+//		Store the neighbours of vertex i in 'neighbours' from offsets[i] up to offsets[i + 1],
+//		sorted and without repeats. Edges shared by two faces are first stored twice.
+		int[] offsets = new int[num_verts + 1];
+		for (int i = 0; i < num_edges; i++) {
+			int v0 = faces[i], v1 = faces[i - i % 3 + (i + 1) % 3];
+			offsets[v0 + 1]++;
+			offsets[v1 + 1]++;
+		}
+		for (int i = 0; i < num_verts; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		int[] neighbours = new int[offsets[num_verts]];
+		int[] fill = Arrays.copyOf(offsets, num_verts);
+		for (int i = 0; i < num_edges; i++) {
+			int v0 = faces[i], v1 = faces[i - i % 3 + (i + 1) % 3];
+			neighbours[fill[v0]++] = v1;
+			neighbours[fill[v1]++] = v0;
+		}
+		int[] degrees = new int[num_verts];
+		for (int i = 0; i < num_verts; i++) {
+			Arrays.sort(neighbours, offsets[i], offsets[i + 1]);
+			for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+				if (j == offsets[i] || neighbours[j] != neighbours[j - 1]) {
+					neighbours[offsets[i] + degrees[i]++] = neighbours[j];
+				}
+			}
+		}
+
+//		The vertices from the fewest neighbours up, used to pick where to start each part.
+		long[] keys = new long[num_verts];
+		for (int i = 0; i < num_verts; i++) {
+			keys[i] = ((long) degrees[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] order = new int[num_verts];
+		boolean[] visited = new boolean[num_verts];
+		long[] neighbour_keys = new long[num_verts];
+		int num_ordered = 0;
+		for (int start = 0; start < num_verts; start++) {
+			int root = (int) keys[start];
+			if (visited[root]) {
+				continue;
+			}
+			visited[root] = true;
+			order[num_ordered++] = root;
+
+//			The order doubles as the queue of the breadth first walk.
+			for (int head = num_ordered - 1; head < num_ordered; head++) {
+				int vertex = order[head];
+				int num_new = 0;
+				for (int j = offsets[vertex]; j < offsets[vertex] + degrees[vertex]; j++) {
+					int neighbour = neighbours[j];
+					if (!visited[neighbour]) {
+						visited[neighbour] = true;
+						neighbour_keys[num_new++] = ((long) degrees[neighbour] << 32) | neighbour;
+					}
+				}
+				Arrays.sort(neighbour_keys, 0, num_new);
+				for (int j = 0; j < num_new; j++) {
+					order[num_ordered++] = (int) neighbour_keys[j];
+				}
+			}
+		}
+
+		for (int i = 0; i < num_verts/2; i++) {
+			int swap = order[i];
+			order[i] = order[num_verts - 1 - i];
+			order[num_verts - 1 - i] = swap;
+		}
+		return order;
+	}
+}